@@ -0,0 +1,114 @@
+package benchmark;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Minimal time-boxed micro-benchmark runner, in the spirit of JMH's average
+ * time mode: each iteration repeats an operation until a time budget is
+ * spent, warmup iterations are discarded, and the score is the mean time per
+ * operation over the measured iterations.
+ *
+ * Every operation returns a value that is folded into {@link #sink}, so the
+ * JIT cannot discard the work being measured.
+ */
+public final class Bench {
+
+    public interface Operation {
+        /**
+         * @param i the number of the call within the iteration
+         * @return any value derived from the work done
+         */
+        long run(int i);
+    }
+
+    public static final int DEFAULT_WARMUP_ITERATIONS = 3;
+    public static final int DEFAULT_ITERATIONS = 5;
+    public static final long DEFAULT_ITERATION_NANOS = 200_000_000L;
+
+    public static volatile long sink;
+
+    private final int warmupIterations;
+    private final int iterations;
+    private final long iterationNanos;
+    private final String filter;
+
+    public Bench(String filter) {
+        this(filter, DEFAULT_WARMUP_ITERATIONS, DEFAULT_ITERATIONS, DEFAULT_ITERATION_NANOS);
+    }
+
+    /**
+     * @param filter only benchmarks whose name contains this run, or null for all
+     */
+    public Bench(String filter, int warmupIterations, int iterations, long iterationNanos) {
+        if (warmupIterations < 0 || iterations < 1 || iterationNanos < 1) {
+            throw new IllegalArgumentException("Invalid benchmark settings: " + warmupIterations +
+                " warmup, " + iterations + " measured, " + iterationNanos + " ns");
+        }
+        this.filter = filter;
+        this.warmupIterations = warmupIterations;
+        this.iterations = iterations;
+        this.iterationNanos = iterationNanos;
+    }
+
+    public boolean isSelected(String name) {
+        return filter == null || name.contains(filter);
+    }
+
+    public static void printHeader() {
+        System.out.println("# " + System.getProperty("java.vm.name") + " " +
+            System.getProperty("java.version") + ", " + System.getProperty("os.name") + " " +
+            System.getProperty("os.arch") + ", " + Runtime.getRuntime().availableProcessors() +
+            " cpus");
+        System.out.println(String.format(Locale.ROOT, "%-56s %14s %12s %14s",
+            "benchmark", "ns/op", "+-", "median"));
+    }
+
+    /**
+     * Measures an operation and prints one result line
+     */
+    public void run(String name, Operation operation) {
+        if (!isSelected(name)) {
+            return;
+        }
+        for (int i = 0; i < warmupIterations; i++) {
+            iteration(operation);
+        }
+        double[] scores = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+            scores[i] = iteration(operation);
+        }
+
+        double mean = 0.0D;
+        for (double score : scores) {
+            mean += score;
+        }
+        mean /= scores.length;
+        double variance = 0.0D;
+        for (double score : scores) {
+            variance += (score - mean) * (score - mean);
+        }
+        double deviation = scores.length > 1 ? Math.sqrt(variance / (scores.length - 1)) : 0.0D;
+        double[] sorted = scores.clone();
+        Arrays.sort(sorted);
+        double median = sorted[sorted.length / 2];
+        System.out.println(String.format(Locale.ROOT, "%-56s %14.1f %12.1f %14.1f",
+            name, mean, deviation, median));
+    }
+
+    /**
+     * @return the mean time per operation in nanoseconds
+     */
+    private double iteration(Operation operation) {
+        long value = 0L;
+        int ops = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            value += operation.run(ops++);
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < iterationNanos);
+        sink += value;
+        return (double) elapsed / ops;
+    }
+}
@@ -0,0 +1,145 @@
+package benchmark;
+
+import javafx.geometry.Point2D;
+import model.grid.hex.Hex;
+import model.grid.hex.HexGrid;
+import model.grid.hex.HexType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic maps and queries for the benchmarks. Every generator takes
+ * its randomness from a fixed seed, so runs on different machines or
+ * revisions measure exactly the same work.
+ */
+public final class BenchMaps {
+
+    public static final long SEED = 0x5EEDL;
+
+    public enum Kind {
+        /**
+         * No obstacles at all
+         */
+        OPEN,
+        /**
+         * A perfect maze carved out of solid wall
+         */
+        MAZE,
+        /**
+         * Scattered walls over mostly dirt terrain
+         */
+        DIRT
+    }
+
+    private BenchMaps() { }
+
+    /**
+     * @param size the width and height of the rectangular map in hexes
+     */
+    public static HexGrid create(Kind kind, int size) {
+        HexGrid grid = new HexGrid(new Point2D(10, 10), new Point2D(size, size));
+        grid.populate(HexGrid.MapShape.RECTANGULAR);
+        Random random = new Random(SEED + size);
+        List<Hex> hexes = hexes(grid);
+        switch (kind) {
+            case MAZE:
+                carveMaze(grid, hexes, random);
+                break;
+            case DIRT:
+                for (Hex hex : hexes) {
+                    double roll = random.nextDouble();
+                    if (roll < 0.1) {
+                        grid.setHexType(hex, HexType.WALL);
+                    } else if (roll < 0.7) {
+                        grid.setHexType(hex, HexType.DIRT);
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+        return grid;
+    }
+
+    /**
+     * Fills the map with walls and carves a maze with a randomized depth
+     * first search over the hexes whose coordinates are both even, knocking
+     * out the wall hex halfway between two such rooms
+     */
+    private static void carveMaze(HexGrid grid, List<Hex> hexes, Random random) {
+        for (Hex hex : hexes) {
+            grid.setHexType(hex, HexType.WALL);
+        }
+        Hex first = null;
+        for (Hex hex : hexes) {
+            if (isRoom(hex)) {
+                first = hex;
+                break;
+            }
+        }
+        if (first == null) {
+            return;
+        }
+        List<Hex> stack = new ArrayList<>();
+        grid.setHexType(first, HexType.EMPTY);
+        stack.add(first);
+        List<Integer> directions = new ArrayList<>(List.of(0, 1, 2, 3, 4, 5));
+        while (!stack.isEmpty()) {
+            Hex room = stack.get(stack.size() - 1);
+            Collections.shuffle(directions, random);
+            boolean carved = false;
+            for (int direction : directions) {
+                Hex step = Hex.DIRECTIONS[direction];
+                Hex next = room.add(step.multiply(2));
+                if (grid.indexOf(next) < 0 || grid.getHexType(next) != HexType.WALL) {
+                    continue;
+                }
+                grid.setHexType(room.add(step), HexType.EMPTY);
+                grid.setHexType(next, HexType.EMPTY);
+                stack.add(next);
+                carved = true;
+                break;
+            }
+            if (!carved) {
+                stack.remove(stack.size() - 1);
+            }
+        }
+    }
+
+    private static boolean isRoom(Hex hex) {
+        return (hex.q() & 1) == 0 && (hex.r() & 1) == 0;
+    }
+
+    public static List<Hex> hexes(HexGrid grid) {
+        List<Hex> hexes = new ArrayList<>();
+        for (int i = 0; i < grid.getCellCount(); i++) {
+            if (grid.hasHexAt(i)) {
+                hexes.add(grid.getHexAt(i));
+            }
+        }
+        return hexes;
+    }
+
+    /**
+     * @return pairs of distinct passable hexes, the same ones on every run
+     */
+    public static Hex[][] queries(HexGrid grid, int count) {
+        List<Hex> passable = new ArrayList<>();
+        for (Hex hex : hexes(grid)) {
+            if (grid.getHexType(hex) != HexType.WALL) {
+                passable.add(hex);
+            }
+        }
+        Random random = new Random(SEED);
+        Hex[][] queries = new Hex[count][];
+        for (int i = 0; i < count; i++) {
+            Hex start = passable.get(random.nextInt(passable.size()));
+            Hex end = passable.get(random.nextInt(passable.size()));
+            queries[i] = new Hex[] { start, end };
+        }
+        return queries;
+    }
+}
@@ -0,0 +1,183 @@
+package benchmark;
+
+import javafx.geometry.Point2D;
+import model.grid.hex.Hex;
+import model.grid.hex.HexCostModel;
+import model.grid.hex.HexCostProfile;
+import model.grid.hex.HexGrid;
+import model.grid.hex.HexLayout;
+import model.grid.hex.HexMapFile;
+import model.grid.hex.HexOrientation;
+import model.grid.hex.HexPathfinder;
+import model.grid.hex.HexType;
+import util.SearchMethods;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks of the search engine and the grid primitives it is built on.
+ * Runs headless: searches go through {@link HexPathfinder}, the engine behind
+ * the animated HexGridSearch, so no JavaFX toolkit is started.
+ *
+ * Usage: {@code HexBenchmarks [name filter]}, for example
+ * {@code HexBenchmarks search/MAZE} to only run searches on mazes. Each line
+ * of output is one benchmark, mean nanoseconds per operation first.
+ */
+public final class HexBenchmarks {
+
+    private static final int[] SIZES = { 32, 128, 512 };
+    private static final String[] METHODS = {
+        SearchMethods.UCS, SearchMethods.GREEDY, SearchMethods.A_STAR,
+        SearchMethods.WEIGHTED_A_STAR, SearchMethods.ANYTIME_A_STAR,
+        SearchMethods.JPS, SearchMethods.BIDIRECTIONAL_UCS, SearchMethods.BIDIRECTIONAL_A_STAR
+    };
+    private static final int QUERY_COUNT = 64;
+
+    private HexBenchmarks() { }
+
+    public static void main(String[] args) throws IOException {
+        Bench bench = new Bench(args.length > 0 ? args[0] : null);
+        Bench.printHeader();
+        searches(bench);
+        profiles(bench);
+        neighbors(bench);
+        layout(bench);
+        populate(bench);
+        mapFile(bench);
+    }
+
+    private static void searches(Bench bench) {
+        HexPathfinder pathfinder = new HexPathfinder();
+        for (BenchMaps.Kind kind : BenchMaps.Kind.values()) {
+            for (int size : SIZES) {
+                String prefix = "search/" + kind + "/" + size + "/";
+                boolean any = false;
+                for (String method : METHODS) {
+                    any |= bench.isSelected(prefix + method);
+                }
+                if (!any) {
+                    continue;
+                }
+                HexGrid grid = BenchMaps.create(kind, size).snapshot();
+                Hex[][] queries = BenchMaps.queries(grid, QUERY_COUNT);
+                for (String method : METHODS) {
+                    bench.run(prefix + method, i -> {
+                        Hex[] query = queries[i % queries.length];
+                        return pathfinder.search(grid, query[0], query[1], method)
+                            .getExpandedCount();
+                    });
+                }
+            }
+        }
+    }
+
+    /**
+     * A* over one version of a dirt map, priced by different agent profiles
+     */
+    private static void profiles(Bench bench) {
+        HexCostProfile uphill = new HexCostProfile("uphill");
+        // Steps with a northward component cost double
+        for (int d = 1; d <= 2; d++) {
+            uphill.setCost(HexType.EMPTY, d, 2.0D);
+            uphill.setCost(HexType.DIRT, d, 6.0D);
+        }
+        HexCostProfile wheeled = new HexCostProfile("wheeled");
+        wheeled.setCost(HexType.DIRT, 8.0D);
+        HexCostModel[] models = { HexCostModel.DEFAULT, uphill, wheeled };
+        String[] names = { "default", "uphill", "wheeled" };
+        HexPathfinder pathfinder = new HexPathfinder();
+        for (int size : SIZES) {
+            String prefix = "profile/" + BenchMaps.Kind.DIRT + "/" + size + "/";
+            HexGrid grid = null;
+            Hex[][] queries = null;
+            for (int m = 0; m < models.length; m++) {
+                if (!bench.isSelected(prefix + names[m])) {
+                    continue;
+                }
+                if (grid == null) {
+                    grid = BenchMaps.create(BenchMaps.Kind.DIRT, size);
+                    queries = BenchMaps.queries(grid.snapshot(), QUERY_COUNT);
+                }
+                HexGrid view = grid.snapshot(models[m]);
+                Hex[][] batch = queries;
+                bench.run(prefix + names[m], i -> {
+                    Hex[] query = batch[i % batch.length];
+                    return pathfinder.search(view, query[0], query[1], SearchMethods.A_STAR)
+                        .getExpandedCount();
+                });
+            }
+        }
+    }
+
+    private static void neighbors(Bench bench) {
+        for (int size : SIZES) {
+            String name = "getNeighbors/" + size;
+            if (!bench.isSelected(name)) {
+                continue;
+            }
+            HexGrid grid = BenchMaps.create(BenchMaps.Kind.DIRT, size);
+            List<Hex> hexes = BenchMaps.hexes(grid);
+            bench.run(name, i -> grid.getNeighbors(hexes.get(i % hexes.size())).size());
+        }
+    }
+
+    private static void layout(Bench bench) {
+        HexLayout layout = new HexLayout(HexOrientation.POINTY,
+            new Point2D(10, 10), Point2D.ZERO);
+        Random random = new Random(BenchMaps.SEED);
+        Point2D[] pixels = new Point2D[1024];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = new Point2D(random.nextDouble() * 4000 - 2000,
+                random.nextDouble() * 4000 - 2000);
+        }
+        bench.run("getRoundedAxialCoordinate", i ->
+            layout.getRoundedAxialCoordinate(pixels[i & 1023]).getX());
+        bench.run("getRoundedAxialKey", i -> {
+            Point2D pixel = pixels[i & 1023];
+            return layout.getRoundedAxialKey(pixel.getX(), pixel.getY());
+        });
+    }
+
+    private static void populate(Bench bench) {
+        for (HexGrid.MapShape shape : HexGrid.MapShape.values()) {
+            for (int size : SIZES) {
+                String name = "populate/" + shape + "/" + size;
+                if (!bench.isSelected(name)) {
+                    continue;
+                }
+                HexGrid grid = new HexGrid(new Point2D(10, 10), new Point2D(size, size));
+                bench.run(name, i -> {
+                    grid.populate(shape);
+                    return grid.getCellCount();
+                });
+            }
+        }
+    }
+
+    private static void mapFile(Bench bench) throws IOException {
+        for (int size : SIZES) {
+            String name = "mapFile/load/" + size;
+            if (!bench.isSelected(name)) {
+                continue;
+            }
+            Path path = Files.createTempFile("bench", ".hexmap");
+            try {
+                HexMapFile.save(BenchMaps.create(BenchMaps.Kind.DIRT, size), path);
+                bench.run(name, i -> {
+                    try {
+                        return HexMapFile.load(path).getCellCount();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } finally {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -5,18 +5,24 @@ import javafx.beans.property.SimpleBooleanProperty;
 import javafx.fxml.FXML;
 import javafx.geometry.Point2D;
 import javafx.scene.canvas.Canvas;
-import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Alert;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.input.MouseButton;
 import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
 import javafx.scene.layout.StackPane;
 import javafx.scene.paint.Color;
 import javafx.stage.Stage;
 
 import model.grid.hex.Hex;
+import model.grid.hex.HexGridRenderer;
 import model.grid.hex.HexGridSearch;
+import model.grid.hex.HexSearchLog;
+import model.grid.hex.HexSearchPlayer;
+import model.grid.hex.HexSearchProgress;
+import model.grid.hex.HexSearchResult;
+import model.grid.hex.HexSearchTask;
 import model.grid.hex.HexType;
 import ui.ResizableCanvas;
 import model.grid.hex.HexGrid;
@@ -28,8 +34,11 @@ public class GridController {
     private static final Color BACKGROUND = Color.GRAY;
 
     private static final double HEX_SIZE = 15.0D; //19
+    // Zoom factor per scroll event
+    private static final double ZOOM_STEP = 1.25D;
 
     private Stage stage;
+    private String title;
 
     @FXML
     private StackPane wrappingPane;
@@ -38,14 +47,18 @@ public class GridController {
     private ResizableCanvas canvasPane;
 
     private Canvas canvas;
-    private GraphicsContext ctx;
 
     private HexGrid grid;
+    private HexGridRenderer renderer;
+    private HexSearchTask search;
+    private HexSearchPlayer player;
     private Hex start, end;
 
     private BooleanProperty finishedAnimation = new SimpleBooleanProperty(true);
 
     private boolean shiftHeld = false;
+    // Painted by the middle button, picked with keys 1 to 5
+    private HexType terrain = HexType.DIRT;
 
     public void setStage(Stage stage) {
         this.stage = stage;
@@ -53,10 +66,10 @@ public class GridController {
 
     public void initialize() {
         canvas = canvasPane.getCanvas();
-        ctx = canvas.getGraphicsContext2D();
     }
 
     public void onStageShow() {
+        title = stage.getTitle();
         stage.getScene().setOnKeyPressed(this::onKeyPressed);
         stage.getScene().setOnKeyReleased(this::onKeyReleased);
 
@@ -65,18 +78,24 @@ public class GridController {
             37, 25 //29,19
         );
         grid = new HexGrid(Point2D.ZERO, size, dimensions);
+        renderer = new HexGridRenderer(grid, canvas, BACKGROUND);
+        renderer.start();
         redraw();
 
         Alert info = new Alert(Alert.AlertType.INFORMATION);
         info.setHeaderText("Instructions");
         info.setContentText(
             "- Left click drag to draw walls\n" +
-                "- Middle click drag to draw dirt roads\n" +
+                "- Middle click drag to draw terrain: press 1 for dirt (the default),\n" +
+                "  2 for sand, 3 for forest, 4 for swamp and 5 for water\n" +
                 "- Right click drag to erase hex\n" +
                 "- Shift + Left click to add starting point\n" +
                 "- Shift + Right click to add ending point\n" +
+                "- Scroll to zoom in and out\n" +
                 "- Press 'c' to clear (not reset) the grid\n" +
-                "- Press (u)niform, (g)reedy, (a)star to perform searches\n" +
+                "- Press (u)niform, (g)reedy, (a)star, (w)eighted A*, anytime (r)epairing A*,\n" +
+                "  (j)ump point, (b)idirectional A* to perform searches\n" +
+                "- Press space to skip to the end of a search, escape to cancel it\n" +
                 "- Go to Edit -> Reset Graph to reset the grids"
         );
         info.getDialogPane().setStyle(
@@ -87,18 +106,13 @@ public class GridController {
     }
 
     private Hex coordsToHex(double sceneX, double sceneY) {
-        Point2D coords = canvasPane.sceneToLocal(sceneX, sceneY).subtract(
-            new Point2D(canvas.getWidth() / 2, canvas.getHeight() / 2)
-        );
-        return grid.getHexAtCoordinates(coords);
+        Point2D local = canvasPane.sceneToLocal(sceneX, sceneY);
+        return grid.getHexAtCoordinates(renderer.toLayout(local.getX(), local.getY()));
     }
 
     private void redraw() {
         grid.populate(MapShape.RECTANGULAR);
-
-        ctx.setLineWidth(1.0);
-        ctx.setStroke(Color.WHITE);
-        grid.draw(canvas, BACKGROUND);
+        renderer.redraw();
     }
 
     @FXML
@@ -109,7 +123,7 @@ public class GridController {
 
     @FXML
     private void onCanvasClear() {
-        grid.draw(canvas, BACKGROUND);
+        renderer.redraw();
     }
 
     @FXML
@@ -134,13 +148,8 @@ public class GridController {
             case PRIMARY:
                 if (shiftHeld) {
                     if (start != null) {
-                        ctx.setFill(BACKGROUND);
-                        grid.fillHex(start, ctx);
-                        grid.drawHex(start, ctx);
                         grid.setHexType(start, HexType.EMPTY);
                     }
-                    ctx.setFill(HexGrid.COLORS.get(HexType.START));
-                    grid.fillHex(target, ctx);
                     grid.setHexType(target, HexType.START);
                     start = target;
                 } else {
@@ -149,21 +158,14 @@ public class GridController {
                     } else if (target.equals(end)) {
                         end = null;
                     }
-                    ctx.setFill(HexGrid.COLORS.get(HexType.WALL));
-                    grid.fillHex(target, ctx);
                     grid.setHexType(target, HexType.WALL);
                 }
                 break;
             case SECONDARY:
                 if (shiftHeld) {
                     if (end != null) {
-                        ctx.setFill(BACKGROUND);
-                        grid.fillHex(end, ctx);
-                        grid.drawHex(end, ctx);
                         grid.setHexType(end, HexType.EMPTY);
                     }
-                    ctx.setFill(HexGrid.COLORS.get(HexType.END));
-                    grid.fillHex(target, ctx);
                     grid.setHexType(target, HexType.END);
                     end = target;
                 } else {
@@ -172,16 +174,11 @@ public class GridController {
                     } else if (target.equals(end)) {
                         end = null;
                     }
-                    ctx.setFill(BACKGROUND);
-                    grid.fillHex(target, ctx);
-                    grid.drawHex(target, ctx);
                     grid.setHexType(target, HexType.EMPTY);
                 }
                 break;
             case MIDDLE:
-                ctx.setFill(HexGrid.COLORS.get(HexType.DIRT));
-                grid.fillHex(target, ctx);
-                grid.setHexType(target, HexType.DIRT);
+                grid.setHexType(target, terrain);
                 break;
         }
     }
@@ -208,24 +205,27 @@ public class GridController {
         }
         switch (button) {
             case PRIMARY:
-                ctx.setFill(HexGrid.COLORS.get(HexType.WALL));
-                grid.fillHex(target, ctx);
                 grid.setHexType(target, HexType.WALL);
                 break;
             case SECONDARY:
-                ctx.setFill(BACKGROUND);
-                grid.fillHex(target, ctx);
-                grid.drawHex(target, ctx);
                 grid.setHexType(target, HexType.EMPTY);
                 break;
             case MIDDLE:
-                ctx.setFill(HexGrid.COLORS.get(HexType.DIRT));
-                grid.fillHex(target, ctx);
-                grid.setHexType(target, HexType.DIRT);
+                grid.setHexType(target, terrain);
                 break;
         }
     }
 
+    @FXML
+    private void onCanvasScrolled(ScrollEvent event) {
+        if (!finishedAnimation.get() || event.getDeltaY() == 0) {
+            return;
+        }
+        Point2D local = canvasPane.sceneToLocal(event.getSceneX(), event.getSceneY());
+        renderer.zoom(event.getDeltaY() > 0 ? ZOOM_STEP : 1 / ZOOM_STEP,
+            local.getX(), local.getY());
+    }
+
     private void onKeyPressed(KeyEvent event) {
         if (event.getCode() == KeyCode.SHIFT) {
             shiftHeld = true;
@@ -247,17 +247,79 @@ public class GridController {
         performSearch(SearchMethods.A_STAR);
     }
 
+    @FXML
+    private void weightedAStarSearch() {
+        performSearch(SearchMethods.WEIGHTED_A_STAR);
+    }
+
+    @FXML
+    private void anytimeAStarSearch() {
+        performSearch(SearchMethods.ANYTIME_A_STAR);
+    }
+
+    @FXML
+    private void jumpPointSearch() {
+        performSearch(SearchMethods.JPS);
+    }
+
+    @FXML
+    private void bidirectionalUniformCost() {
+        performSearch(SearchMethods.BIDIRECTIONAL_UCS);
+    }
+
+    @FXML
+    private void bidirectionalAStarSearch() {
+        performSearch(SearchMethods.BIDIRECTIONAL_A_STAR);
+    }
+
     private void performSearch(String searchMethod) {
         if (start == null || end == null) {
             return;
         }
-        if (!finishedAnimation.get()) {
-            return;
-        }
+        // A new search supersedes whatever is running or replaying
+        cancelSearch();
         finishedAnimation.set(false);
-        long startTime = System.currentTimeMillis();
-        HexGridSearch.search(grid, start, end, searchMethod, ctx, finishedAnimation);
-        System.out.println(System.currentTimeMillis() - startTime);
+        HexSearchLog log = new HexSearchLog();
+        search = HexGridSearch.search(grid, start, end, searchMethod, log,
+            new HexSearchProgress() {
+                @Override
+                public void onProgress(int expanded, double f) {
+                    stage.setTitle(String.format("%s - %s: %,d expanded, f = %.1f",
+                        title, searchMethod, expanded, f));
+                }
+
+                @Override
+                public void onFinished(HexSearchResult result) {
+                    search = null;
+                    stage.setTitle(title);
+                    player = HexGridSearch.replay(renderer, log, result, finishedAnimation);
+                }
+
+                @Override
+                public void onFailed(Throwable error) {
+                    search = null;
+                    stage.setTitle(title);
+                    finishedAnimation.set(true);
+                    error.printStackTrace();
+                }
+            });
+    }
+
+    private void cancelSearch() {
+        if (search != null) {
+            search.cancel(false);
+            search = null;
+        }
+        if (player != null) {
+            if (player.isPlaying()) {
+                // Wipe the half-played replay
+                player.pause();
+                renderer.redraw();
+            }
+            player = null;
+        }
+        stage.setTitle(title);
+        finishedAnimation.set(true);
     }
 
     private void onKeyReleased(KeyEvent event) {
@@ -275,9 +337,44 @@ public class GridController {
             case A:
                 performSearch(SearchMethods.A_STAR);
                 break;
+            case W:
+                performSearch(SearchMethods.WEIGHTED_A_STAR);
+                break;
+            case R:
+                performSearch(SearchMethods.ANYTIME_A_STAR);
+                break;
+            case J:
+                performSearch(SearchMethods.JPS);
+                break;
+            case B:
+                performSearch(SearchMethods.BIDIRECTIONAL_A_STAR);
+                break;
             case C:
                 onCanvasClear();
                 break;
+            case SPACE:
+                if (player != null) {
+                    player.skipToEnd();
+                }
+                break;
+            case ESCAPE:
+                cancelSearch();
+                break;
+            case DIGIT1:
+                terrain = HexType.DIRT;
+                break;
+            case DIGIT2:
+                terrain = HexType.SAND;
+                break;
+            case DIGIT3:
+                terrain = HexType.FOREST;
+                break;
+            case DIGIT4:
+                terrain = HexType.SWAMP;
+                break;
+            case DIGIT5:
+                terrain = HexType.WATER;
+                break;
         }
     }
 }
@@ -38,6 +38,17 @@ public class FractionalHex {
     }
 
     public static Point2D round(double m_q, double m_r) {
+        long key = roundToKey(m_q, m_r);
+        return new Point2D(Hex.qOfKey(key), Hex.rOfKey(key));
+    }
+
+    /**
+     * Rounds fractional axial coordinates to the nearest hex without
+     * allocating
+     *
+     * @return the packed key of the hex, as made by {@link Hex#key(int, int)}
+     */
+    public static long roundToKey(double m_q, double m_r) {
         double m_s = -m_q - m_r;
         int q = (int) Math.round(m_q);
         int r = (int) Math.round(m_r);
@@ -50,13 +61,10 @@ public class FractionalHex {
         } else if (r_diff > s_diff) {
             r = -q - s;
         }
-        return new Point2D(q, r);
+        return Hex.key(q, r);
     }
 
     public Hex round() {
-        Point2D roundedAxial = round(m_q, m_r);
-        int rounded_q = (int) roundedAxial.getX();
-        int rounded_r = (int) roundedAxial.getY();
-        return new Hex(rounded_q, rounded_r, -rounded_q - rounded_r);
+        return Hex.ofKey(roundToKey(m_q, m_r));
     }
 }
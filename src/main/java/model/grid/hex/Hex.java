@@ -2,27 +2,34 @@ package model.grid.hex;
 
 import util.IntPoint2D;
 
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 /**
  * Reference: https://www.redblobgames.com/grids/hexagons/implementation.html
  *
  * Implements a hex in a grid with a cube coordinate system interface, but using
  * a axial coordinate system internally.
+ *
+ * Hexes are immutable values. Both axial coordinates pack into a single long
+ * {@link #key()}, which code on hot paths can pass around instead of
+ * allocating hexes. {@link #of(int, int)} hands out one canonical instance
+ * per hex near the origin, much like {@link Integer#valueOf(int)}.
  */
 public class Hex {
 
-    public static final Hex ORIGIN = new Hex(0, 0, 0);
+    // Hexes with both axial coordinates in [-CACHE_RADIUS, CACHE_RADIUS) are interned
+    private static final int CACHE_RADIUS = 128;
+    private static final int CACHE_WIDTH = 2 * CACHE_RADIUS;
+    private static final AtomicReferenceArray<Hex> CACHE =
+        new AtomicReferenceArray<>(CACHE_WIDTH * CACHE_WIDTH);
+
+    public static final Hex ORIGIN = of(0, 0);
     public static Hex[] DIRECTIONS = {
-        new Hex(1, 0), new Hex(1, -1), new Hex(0, -1),
-        new Hex(-1, 0), new Hex(-1, 1), new Hex(0, 1)
-    };
-    public static IntPoint2D[] POINT_DIRECTIONS = {
-        new IntPoint2D(1, 0), new IntPoint2D(1, -1),
-        new IntPoint2D(0, -1), new IntPoint2D(-1, 0),
-        new IntPoint2D(-1, 1), new IntPoint2D(0, 1)
+        of(1, 0), of(1, -1), of(0, -1),
+        of(-1, 0), of(-1, 1), of(0, 1)
     };
 
-    private final int m_q, m_r, m_s;
-    private IntPoint2D pointRepresentation;
+    private final int m_q, m_r;
 
     /**
      * Cube system constructor
@@ -39,8 +46,6 @@ public class Hex {
         }
         m_q = x;
         m_r = z;
-        m_s = y;
-        pointRepresentation = new IntPoint2D(m_q, m_r);
     }
 
     /**
@@ -53,6 +58,61 @@ public class Hex {
         this(x, z, -x - z);
     }
 
+    /**
+     * Returns the hex at the given axial coordinates, the same instance every
+     * time for hexes near the origin
+     */
+    public static Hex of(int q, int r) {
+        int col = q + CACHE_RADIUS;
+        int row = r + CACHE_RADIUS;
+        if (col < 0 || col >= CACHE_WIDTH || row < 0 || row >= CACHE_WIDTH) {
+            return new Hex(q, r);
+        }
+        int slot = row * CACHE_WIDTH + col;
+        Hex hex = CACHE.get(slot);
+        if (hex == null) {
+            hex = new Hex(q, r);
+            if (!CACHE.compareAndSet(slot, null, hex)) {
+                hex = CACHE.get(slot);
+            }
+        }
+        return hex;
+    }
+
+    /**
+     * @param key a key made by {@link #key(int, int)}
+     */
+    public static Hex ofKey(long key) {
+        return of(qOfKey(key), rOfKey(key));
+    }
+
+    /**
+     * Packs axial coordinates into a single value
+     */
+    public static long key(int q, int r) {
+        return ((long) q << 32) | (r & 0xFFFFFFFFL);
+    }
+
+    public static int qOfKey(long key) {
+        return (int) (key >> 32);
+    }
+
+    public static int rOfKey(long key) {
+        return (int) key;
+    }
+
+    /**
+     * @return the canonical instance of this hex, if it has one
+     */
+    public Hex intern() {
+        Hex canonical = of(m_q, m_r);
+        return canonical.equals(this) ? canonical : this;
+    }
+
+    public long key() {
+        return key(m_q, m_r);
+    }
+
     public int q() {
         return m_q;
     }
@@ -62,35 +122,26 @@ public class Hex {
     }
 
     public int s() {
-        return m_s;
+        return -m_q - m_r;
     }
 
+    /**
+     * @return the axial coordinates as a new point
+     */
     public IntPoint2D getPoint() {
-        return pointRepresentation;
+        return new IntPoint2D(m_q, m_r);
     }
 
     public Hex add(Hex other) {
-        return new Hex(
-            m_q + other.m_q,
-            m_r + other.m_r,
-            m_s + other.m_s
-        );
+        return of(m_q + other.m_q, m_r + other.m_r);
     }
 
     public Hex subtract(Hex other) {
-        return new Hex(
-            m_q - other.m_q,
-            m_r - other.m_r,
-            m_s - other.m_s
-        );
+        return of(m_q - other.m_q, m_r - other.m_r);
     }
 
     public Hex multiply(int k) {
-        return new Hex(
-            m_q * k,
-            m_r * k,
-            m_s * k
-        );
+        return of(m_q * k, m_r * k);
     }
 
     public int length() {
@@ -98,11 +149,9 @@ public class Hex {
     }
 
     public int distanceTo(Hex hex) {
-        return (
-            Math.abs(m_q - hex.m_q) +
-            Math.abs(m_r - hex.m_r) +
-            Math.abs(m_s - hex.m_s)
-        ) / 2;
+        int dq = m_q - hex.m_q;
+        int dr = m_r - hex.m_r;
+        return (Math.abs(dq) + Math.abs(dr) + Math.abs(dq + dr)) / 2;
     }
 
     /**
@@ -131,11 +180,17 @@ public class Hex {
             return false;
         }
         Hex other = (Hex) object;
-        return m_q == other.m_q && m_r == other.m_r && m_s == other.m_s;
+        return m_q == other.m_q && m_r == other.m_r;
+    }
+
+    @Override
+    public int hashCode() {
+        // Mix both halves of the key, so nearby hexes spread across buckets
+        return Long.hashCode(key() * 0x9E3779B97F4A7C15L);
     }
 
     @Override
     public String toString() {
-        return "Hex[" + m_q + ", " + m_r + ", " + m_s + "]";
+        return "Hex[" + m_q + ", " + m_r + ", " + s() + "]";
     }
 }
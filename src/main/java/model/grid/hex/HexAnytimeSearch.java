@@ -0,0 +1,204 @@
+package model.grid.hex;
+
+import util.IntPriorityQueue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Anytime Repairing A* (ARA*): a run of weighted A* passes with a falling
+ * weight, each reusing the work of the one before, stopped at a deadline.
+ *
+ * A pass ordered by g + w * h finds a path costing at most w times the
+ * optimal cost. The first pass uses the pathfinder's weight and always runs
+ * to the end, so a path is found whatever the deadline; later passes lower
+ * the weight and keep going until one proves the path optimal or the
+ * deadline passes. A pass never expands a hex twice: a hex whose cost
+ * improves after its expansion waits in an inconsistent list for the next
+ * pass instead.
+ *
+ * Between passes the cost of the cheapest path to the goal is bounded from
+ * below by the least g + h over the open and inconsistent hexes, which
+ * bounds how far the path found can be from optimal.
+ */
+final class HexAnytimeSearch {
+
+    // How far the weight drops between passes, unless the bound already has
+    private static final double WEIGHT_STEP = 0.5D;
+    // Expansions between looks at the clock
+    private static final int CLOCK_INTERVAL = 64;
+
+    private final HexGrid grid;
+    private final int goal;
+    private final HexHeuristic heuristic;
+    private final double weight;
+    private final long deadline;
+
+    // Hexes improved after their expansion in the current pass
+    private int[] inconsistent = new int[64];
+    private int inconsistentCount = 0;
+
+    /**
+     * @param heuristic a consistent estimate
+     * @param weight the weight of the first pass, at least 1
+     * @param deadline the {@link System#nanoTime()} to stop improving at
+     */
+    HexAnytimeSearch(HexGrid grid, int goal, HexHeuristic heuristic, double weight,
+                     long deadline) {
+        this.grid = grid;
+        this.goal = goal;
+        this.heuristic = heuristic;
+        this.weight = weight;
+        this.deadline = deadline;
+    }
+
+    /**
+     * @param queue an empty open set that takes any priority
+     */
+    HexSearchResult search(int start, HexSearchWorkspace workspace, IntPriorityQueue queue,
+                           HexSearchListener listener) {
+        workspace.visit(start, heuristic.estimate(grid, start, goal));
+        workspace.setPathCost(start, 0.0D);
+        double w = weight;
+        queue.push(start, w * workspace.getHeuristic(start));
+        int expanded = 0;
+        int pushed = 1;
+        // The cells closed in a pass hold its number as their direction,
+        // which no other part of this search uses
+        int pass = 0;
+        // The weight of the last finished pass, and a lower bound on the
+        // optimal cost as of its end
+        double proven = Double.POSITIVE_INFINITY;
+        double lowerBound = 0.0D;
+        int[] open = new int[64];
+
+        while (true) {
+            // Improve the path with the current weight
+            boolean timedOut = false;
+            while (!queue.isEmpty() && queue.peekPriority() < workspace.getPathCost(goal)) {
+                if (pass > 0 && expanded % CLOCK_INTERVAL == 0 &&
+                    System.nanoTime() - deadline >= 0) {
+                    timedOut = true;
+                    break;
+                }
+                int current = queue.poll();
+                expanded++;
+                double g = workspace.getPathCost(current);
+                if (listener != null) {
+                    listener.onExpand(grid, current, g + workspace.getHeuristic(current));
+                }
+                workspace.setDirection(current, pass);
+
+                int mask = grid.getNeighborMask(current);
+                for (int i = 0; i < 6; ++i) {
+                    if ((mask & (1 << i)) == 0) {
+                        continue;
+                    }
+                    int neighbor = current + grid.getNeighborOffset(i);
+                    double newDist = g + grid.getMovementCost(neighbor, i);
+                    if (!workspace.isVisited(neighbor)) {
+                        workspace.visit(neighbor, heuristic.estimate(grid, neighbor, goal));
+                    }
+                    boolean closed = workspace.getDirection(neighbor) == pass;
+                    if (listener != null && !closed) {
+                        listener.onFringe(grid, neighbor);
+                    }
+                    if (newDist >= workspace.getPathCost(neighbor)) {
+                        continue;
+                    }
+                    workspace.setPathCost(neighbor, newDist);
+                    workspace.setParent(neighbor, current);
+                    if (closed) {
+                        addInconsistent(neighbor);
+                    } else {
+                        queue.push(neighbor, newDist + w * workspace.getHeuristic(neighbor));
+                        pushed++;
+                    }
+                }
+            }
+            double cost = workspace.getPathCost(goal);
+            if (timedOut || cost == Double.POSITIVE_INFINITY) {
+                // A pass cut short proves nothing new, though its path may
+                // still be cheaper than the last one
+                return result(workspace, start, cost, expanded, pushed, proven, lowerBound);
+            }
+
+            // Gather the open and inconsistent hexes for the next pass
+            int openCount = 0;
+            while (!queue.isEmpty()) {
+                if (openCount == open.length) {
+                    open = Arrays.copyOf(open, open.length * 2);
+                }
+                open[openCount++] = queue.poll();
+            }
+            double lowest = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < openCount; i++) {
+                lowest = Math.min(lowest,
+                    workspace.getPathCost(open[i]) + workspace.getHeuristic(open[i]));
+            }
+            for (int i = 0; i < inconsistentCount; i++) {
+                int cell = inconsistent[i];
+                lowest = Math.min(lowest,
+                    workspace.getPathCost(cell) + workspace.getHeuristic(cell));
+            }
+            proven = w;
+            lowerBound = lowest;
+            double bound = cost <= lowest ? 1.0D : Math.min(w, cost / lowest);
+            if (bound <= 1.0D || System.nanoTime() - deadline >= 0) {
+                return result(workspace, start, cost, expanded, pushed, proven, lowerBound);
+            }
+
+            w = Math.max(1.0D, Math.min(w - WEIGHT_STEP, bound));
+            pass++;
+            for (int i = 0; i < openCount; i++) {
+                queue.push(open[i], workspace.getPathCost(open[i]) +
+                    w * workspace.getHeuristic(open[i]));
+            }
+            for (int i = 0; i < inconsistentCount; i++) {
+                int cell = inconsistent[i];
+                queue.push(cell, workspace.getPathCost(cell) + w * workspace.getHeuristic(cell));
+                pushed++;
+            }
+            inconsistentCount = 0;
+        }
+    }
+
+    private void addInconsistent(int index) {
+        if (inconsistentCount == inconsistent.length) {
+            inconsistent = Arrays.copyOf(inconsistent, inconsistent.length * 2);
+        }
+        inconsistent[inconsistentCount++] = index;
+    }
+
+    /**
+     * Walks the parents back from the goal. The path can cost less than the
+     * goal's recorded cost if hexes on it improved after their children
+     * last did, so its cost is added up again along the way.
+     *
+     * @param proven the weight of the last finished pass
+     * @param lowerBound a lower bound on the optimal cost
+     */
+    private HexSearchResult result(HexSearchWorkspace workspace, int start, double cost,
+                                   int expanded, int pushed, double proven,
+                                   double lowerBound) {
+        List<Hex> path = new ArrayList<>();
+        if (cost == Double.POSITIVE_INFINITY) {
+            // Running out of hexes proves the goal unreachable
+            return new HexSearchResult(path, cost, expanded, pushed);
+        }
+        double total = 0.0D;
+        for (int cell = goal; cell != start; cell = workspace.getParent(cell)) {
+            path.add(grid.getHexAt(cell));
+            int parent = workspace.getParent(cell);
+            total += grid.getMovementCost(cell, grid.getNeighborDirection(parent, cell));
+        }
+        path.add(grid.getHexAt(start));
+        Collections.reverse(path);
+        HexSearchResult result = new HexSearchResult(path, total, expanded, pushed);
+        result.setSuboptimality(total <= lowerBound ? 1.0D :
+            Math.max(1.0D, Math.min(proven, total / lowerBound)));
+        return result;
+    }
+}
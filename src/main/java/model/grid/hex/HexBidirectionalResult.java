@@ -0,0 +1,51 @@
+package model.grid.hex;
+
+import java.util.List;
+
+/**
+ * Result of a bidirectional query, which also reports how the work was split
+ * between the frontier grown from the start and the one grown from the goal.
+ */
+public class HexBidirectionalResult extends HexSearchResult {
+
+    private final int forwardExpanded;
+    private final int backwardExpanded;
+    private final Hex meeting;
+
+    HexBidirectionalResult(List<Hex> path, double cost, int forwardExpanded,
+                           int backwardExpanded, int pushed, Hex meeting) {
+        super(path, cost, forwardExpanded + backwardExpanded, pushed);
+        this.forwardExpanded = forwardExpanded;
+        this.backwardExpanded = backwardExpanded;
+        this.meeting = meeting;
+    }
+
+    /**
+     * @return the number of hexes expanded by the search from the start
+     */
+    public int getForwardExpandedCount() {
+        return forwardExpanded;
+    }
+
+    /**
+     * @return the number of hexes expanded by the search from the goal
+     */
+    public int getBackwardExpandedCount() {
+        return backwardExpanded;
+    }
+
+    /**
+     * @return the hex where the two halves of the path were joined, or null if
+     * the goal is unreachable
+     */
+    public Hex getMeetingHex() {
+        return meeting;
+    }
+
+    @Override
+    public String toString() {
+        return "HexBidirectionalResult[cost = " + getCost() + ", expanded = " +
+            forwardExpanded + " + " + backwardExpanded + ", pushed = " +
+            getPushedCount() + ", path = " + getPath() + "]";
+    }
+}
@@ -0,0 +1,139 @@
+package model.grid.hex;
+
+import util.IntPriorityQueue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Grows one frontier from the start and one from the goal, always expanding
+ * the smaller one, until the best path joining them is known to be optimal.
+ *
+ * Moving onto a hex costs that hex's movement cost, so the backward search
+ * walks edges in reverse: stepping back from v to u costs what it costs to
+ * enter v from u. The frontiers may meet long before they can stop, since
+ * a dirt hex on the meeting path can hide a cheaper detour; the search only
+ * stops once the two smallest keys add up to at least the best meeting cost
+ * found.
+ *
+ * With a heuristic, each side orders its open set by the average potential
+ * p(v) = (h(v, goal) - h(start, v)) / 2 forward and -p(v) backward. Both are
+ * consistent whenever the heuristic is, which keeps the stopping rule of
+ * the plain bidirectional Dijkstra valid.
+ */
+final class HexBidirectionalSearch {
+
+    private final HexGrid grid;
+    private final int start;
+    private final int goal;
+    private final HexHeuristic heuristic;
+
+    /**
+     * @param heuristic a consistent estimate, or null to search without one
+     */
+    HexBidirectionalSearch(HexGrid grid, int start, int goal, HexHeuristic heuristic) {
+        this.grid = grid;
+        this.start = start;
+        this.goal = goal;
+        this.heuristic = heuristic;
+    }
+
+    HexSearchResult search(HexSearchWorkspace forward, IntPriorityQueue forwardQueue,
+                           HexSearchWorkspace backward, IntPriorityQueue backwardQueue,
+                           HexSearchListener listener) {
+        forward.visit(start, potential(start));
+        forward.setPathCost(start, 0.0D);
+        forwardQueue.push(start, forward.getHeuristic(start));
+        backward.visit(goal, -potential(goal));
+        backward.setPathCost(goal, 0.0D);
+        backwardQueue.push(goal, backward.getHeuristic(goal));
+        int forwardExpanded = 0;
+        int backwardExpanded = 0;
+        int pushed = 2;
+
+        double best = start == goal ? 0.0D : Double.POSITIVE_INFINITY;
+        int meeting = start == goal ? start : -1;
+        // Nothing steps onto a wall, so the backward search could only leave it
+        boolean reachable = start == goal || grid.isPassable(goal);
+        while (reachable && !forwardQueue.isEmpty() && !backwardQueue.isEmpty()) {
+            if (forwardQueue.peekPriority() + backwardQueue.peekPriority() >= best) {
+                break;
+            }
+            boolean isForward = forwardQueue.size() <= backwardQueue.size();
+            HexSearchWorkspace own = isForward ? forward : backward;
+            HexSearchWorkspace other = isForward ? backward : forward;
+            IntPriorityQueue queue = isForward ? forwardQueue : backwardQueue;
+
+            int current = queue.poll();
+            if (isForward) {
+                forwardExpanded++;
+            } else {
+                backwardExpanded++;
+            }
+            if (listener != null) {
+                listener.onExpand(grid, current,
+                    own.getPathCost(current) + own.getHeuristic(current));
+            }
+            own.close(current);
+
+            int mask = grid.getNeighborMask(current);
+            for (int i = 0; i < 6; ++i) {
+                if ((mask & (1 << i)) == 0) {
+                    continue;
+                }
+                int neighbor = current + grid.getNeighborOffset(i);
+                if (own.isClosed(neighbor)) {
+                    continue;
+                }
+                if (listener != null) {
+                    listener.onFringe(grid, neighbor);
+                }
+                // Backward steps cost entering the hex being stepped back from
+                double newDist = own.getPathCost(current) + (isForward ?
+                    grid.getMovementCost(neighbor, i) : grid.getMovementCost(current, (i + 3) % 6));
+                if (!own.isVisited(neighbor)) {
+                    double p = potential(neighbor);
+                    own.visit(neighbor, isForward ? p : -p);
+                }
+                if (newDist < own.getPathCost(neighbor)) {
+                    own.setPathCost(neighbor, newDist);
+                    own.setParent(neighbor, current);
+                    queue.push(neighbor, newDist + own.getHeuristic(neighbor));
+                    pushed++;
+                    double through = newDist + other.getPathCost(neighbor);
+                    if (through < best) {
+                        best = through;
+                        meeting = neighbor;
+                    }
+                }
+            }
+        }
+
+        List<Hex> path = new ArrayList<>();
+        if (meeting < 0) {
+            return new HexBidirectionalResult(path, Double.POSITIVE_INFINITY,
+                forwardExpanded, backwardExpanded, pushed, null);
+        }
+        for (int node = meeting; node >= 0; node = forward.getParent(node)) {
+            path.add(grid.getHexAt(node));
+        }
+        Collections.reverse(path);
+        for (int node = backward.getParent(meeting); node >= 0; node = backward.getParent(node)) {
+            path.add(grid.getHexAt(node));
+        }
+        return new HexBidirectionalResult(path, best, forwardExpanded,
+            backwardExpanded, pushed, grid.getHexAt(meeting));
+    }
+
+    /**
+     * @return the forward potential of a hex; the backward one is its negation
+     */
+    private double potential(int index) {
+        if (heuristic == null) {
+            return 0.0D;
+        }
+        return (heuristic.estimate(grid, index, goal) -
+            heuristic.estimate(grid, start, index)) / 2;
+    }
+}
@@ -0,0 +1,59 @@
+package model.grid.hex;
+
+/**
+ * Prices the steps of a path over a {@link HexGrid}. A step from a hex to
+ * its neighbor costs what the model asks for entering the neighbor's type in
+ * the direction of the step, so terrain can be dearer uphill, into the wind,
+ * or for one kind of agent than another.
+ *
+ * A model is only asked once per type and direction, when it is installed
+ * on a grid or used for a snapshot; searches read a precompiled table.
+ *
+ * Every planner takes any positive, finite costs except two, which need
+ * whole numbers small enough for their exact integer arithmetic:
+ * {@link HexIncrementalPathfinder} and {@link HexLandmarkHeuristic}. Both
+ * refuse an unsupported grid when created, and their {@code supports}
+ * methods tell in advance.
+ *
+ * @see HexGrid#setCostModel(HexCostModel)
+ * @see HexGrid#snapshot(HexCostModel)
+ */
+public interface HexCostModel {
+
+    /**
+     * Open ground costs one, sand two, dirt three, forest four, swamp six and
+     * shallow water eight, from any direction
+     */
+    HexCostModel DEFAULT = new HexCostModel() {
+        @Override
+        public double getCost(HexType type, int direction) {
+            switch (type) {
+                case SAND:
+                    return 2.0D;
+                case DIRT:
+                    return 3.0D;
+                case FOREST:
+                    return 4.0D;
+                case SWAMP:
+                    return 6.0D;
+                case WATER:
+                    return 8.0D;
+                default:
+                    return 1.0D;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "HexCostModel.DEFAULT";
+        }
+    };
+
+    /**
+     * @param type the type of the hex being entered, never a wall
+     * @param direction direction index of the step in [0, 5], as in
+     *                  {@link Hex#DIRECTIONS}
+     * @return the cost of the step, positive and finite
+     */
+    double getCost(HexType type, int direction);
+}
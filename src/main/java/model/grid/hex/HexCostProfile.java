@@ -0,0 +1,76 @@
+package model.grid.hex;
+
+/**
+ * An editable table of step costs for one kind of agent, by hex type and
+ * direction. Edits only reach a grid when the profile is installed again, or
+ * passed to the next {@link HexGrid#snapshot(HexCostModel)}.
+ */
+public class HexCostProfile implements HexCostModel {
+
+    private static final HexType[] TYPES = HexType.values();
+
+    private final String name;
+    // costs[type ordinal][direction]
+    private final double[][] costs = new double[TYPES.length][6];
+
+    /**
+     * @param name a label for the agent the profile prices paths for
+     */
+    public HexCostProfile(String name) {
+        this(name, HexCostModel.DEFAULT);
+    }
+
+    /**
+     * @param name a label for the agent the profile prices paths for
+     * @param base the model to copy every cost from
+     */
+    public HexCostProfile(String name, HexCostModel base) {
+        this.name = name;
+        for (HexType type : TYPES) {
+            for (int d = 0; d < 6; ++d) {
+                costs[type.ordinal()][d] = base.getCost(type, d);
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Sets the cost of entering a type of hex from every direction
+     */
+    public void setCost(HexType type, double cost) {
+        for (int d = 0; d < 6; ++d) {
+            setCost(type, d, cost);
+        }
+    }
+
+    /**
+     * Sets the cost of entering a type of hex by a step in one direction
+     *
+     * @param direction direction index in [0, 5], as in {@link Hex#DIRECTIONS}
+     * @param cost a positive, finite cost; a few planners also need whole
+     *             numbers, see {@link HexCostModel}
+     */
+    public void setCost(HexType type, int direction, double cost) {
+        if (direction < 0 || direction >= 6) {
+            throw new IllegalArgumentException("Invalid direction " + direction);
+        }
+        if (!(cost > 0.0D) || cost == Double.POSITIVE_INFINITY) {
+            throw new IllegalArgumentException(
+                "Movement costs must be positive and finite: " + type + " = " + cost);
+        }
+        costs[type.ordinal()][direction] = cost;
+    }
+
+    @Override
+    public double getCost(HexType type, int direction) {
+        return costs[type.ordinal()][direction];
+    }
+
+    @Override
+    public String toString() {
+        return "HexCostProfile[" + name + "]";
+    }
+}
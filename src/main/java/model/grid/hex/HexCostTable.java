@@ -0,0 +1,110 @@
+package model.grid.hex;
+
+/**
+ * A {@link HexCostModel} compiled into a flat table, so the cost of a step
+ * is one array read indexed by the cell byte of the hex being entered and
+ * the direction of the step.
+ *
+ * Also keeps the summary values the searches rely on: the cheapest and
+ * dearest step onto a passable hex, and whether every such step costs a
+ * whole number.
+ */
+final class HexCostTable {
+
+    private static final HexType[] TYPES = HexType.values();
+    // Each type gets eight slots, so the index is a shift and an or
+    private static final int DIRECTION_BITS = 3;
+
+    static final HexCostTable DEFAULT = compile(HexCostModel.DEFAULT);
+
+    final HexCostModel model;
+    // costs[type ordinal << DIRECTION_BITS | direction]
+    private final double[] costs;
+    // The cheapest direction of each type
+    private final double[] cheapest;
+    // Whether a type costs the base cost from every direction
+    private final boolean[] base;
+    final double baseCost;
+    final double maxCost;
+    final boolean integral;
+
+    private HexCostTable(HexCostModel model, double[] costs, double[] cheapest,
+                         boolean[] base, double baseCost, double maxCost,
+                         boolean integral) {
+        this.model = model;
+        this.costs = costs;
+        this.cheapest = cheapest;
+        this.base = base;
+        this.baseCost = baseCost;
+        this.maxCost = maxCost;
+        this.integral = integral;
+    }
+
+    /**
+     * Asks the model for the cost of every type and direction
+     *
+     * @throws IllegalArgumentException if the model prices a step onto a
+     * passable hex as zero, negative, infinite or NaN
+     */
+    static HexCostTable compile(HexCostModel model) {
+        if (model == null) {
+            throw new IllegalArgumentException("Cost model must not be null");
+        }
+        double[] costs = new double[TYPES.length << DIRECTION_BITS];
+        double[] cheapest = new double[TYPES.length];
+        boolean[] base = new boolean[TYPES.length];
+        double baseCost = Double.POSITIVE_INFINITY;
+        double maxCost = 0.0D;
+        boolean integral = true;
+        for (HexType type : TYPES) {
+            cheapest[type.ordinal()] = Double.POSITIVE_INFINITY;
+            if (type == HexType.WALL) {
+                // Nothing steps onto a wall, so its cost is never read
+                continue;
+            }
+            for (int d = 0; d < 6; ++d) {
+                double cost = model.getCost(type, d);
+                if (!(cost > 0.0D) || cost == Double.POSITIVE_INFINITY) {
+                    throw new IllegalArgumentException(
+                        "Movement costs must be positive and finite: " + type +
+                            " in direction " + d + " = " + cost);
+                }
+                costs[type.ordinal() << DIRECTION_BITS | d] = cost;
+                cheapest[type.ordinal()] = Math.min(cheapest[type.ordinal()], cost);
+                baseCost = Math.min(baseCost, cost);
+                maxCost = Math.max(maxCost, cost);
+                integral &= cost == Math.rint(cost);
+            }
+        }
+        for (HexType type : TYPES) {
+            boolean uniform = type != HexType.WALL;
+            for (int d = 0; d < 6 && uniform; ++d) {
+                uniform = costs[type.ordinal() << DIRECTION_BITS | d] == baseCost;
+            }
+            base[type.ordinal()] = uniform;
+        }
+        return new HexCostTable(model, costs, cheapest, base, baseCost, maxCost, integral);
+    }
+
+    /**
+     * @param cell the cell byte of the hex being entered, not NO_HEX
+     */
+    double cost(byte cell, int direction) {
+        return costs[cell << DIRECTION_BITS | direction];
+    }
+
+    /**
+     * @return the cost of entering a type of hex by its cheapest direction
+     */
+    double cheapest(int type) {
+        return cheapest[type];
+    }
+
+    /**
+     * @return whether entering the cell costs the base cost from every
+     * direction
+     */
+    boolean isBase(byte cell) {
+        return cell >= 0 && base[cell];
+    }
+}
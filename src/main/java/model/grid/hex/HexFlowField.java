@@ -0,0 +1,321 @@
+package model.grid.hex;
+
+import util.IndexedHeap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Distance map and flow field towards a set of goal hexes, for crowds of
+ * units that share a destination.
+ *
+ * A single uniform cost search runs backward from every goal at once, so the
+ * distance of a hex is the cost of reaching the nearest goal from it. Each
+ * hex then stores, in one byte, the direction of its neighbor on a cheapest
+ * path (an index into {@link Hex#DIRECTIONS}), and a unit follows the field
+ * one step at a time without searching.
+ *
+ * The search keeps its state between refreshes (LPA* without a heuristic):
+ * edits to the grid are queued, and the next {@link #refresh()} repairs only
+ * the distances they actually change.
+ */
+public class HexFlowField implements HexGridListener {
+
+    /**
+     * Direction of goal hexes and of hexes that cannot reach any goal
+     */
+    public static final byte NO_DIRECTION = -1;
+
+    private final HexGrid grid;
+    private final List<Hex> goalHexes = new ArrayList<>();
+
+    private HexGrid snapshot;
+    private final BitSet goalSet = new BitSet();
+    private double[] g = new double[0];
+    private double[] rhs = new double[0];
+    private byte[] directions = new byte[0];
+    private IndexedHeap open;
+    // Hexes whose distance changed during the current refresh
+    private int[] changed = new int[16];
+    private int changedCount;
+
+    private boolean rebuild = true;
+    private int[] pending = new int[16];
+    private int pendingCount = 0;
+    private int[] edits = new int[16];
+
+    /**
+     * @param grid the grid to cover, which this field starts listening to
+     * @param goals the hexes to lead units to
+     */
+    public HexFlowField(HexGrid grid, Collection<Hex> goals) {
+        this.grid = grid;
+        setGoals(goals);
+        grid.addListener(this);
+    }
+
+    /**
+     * Stops listening to the grid
+     */
+    public void detach() {
+        grid.removeListener(this);
+    }
+
+    public synchronized List<Hex> getGoals() {
+        return new ArrayList<>(goalHexes);
+    }
+
+    /**
+     * Replaces the goals; the next refresh recomputes the whole field
+     */
+    public synchronized void setGoals(Collection<Hex> goals) {
+        if (goals == null || goals.isEmpty()) {
+            throw new IllegalArgumentException("Invalid flow field goals: " + goals);
+        }
+        // contains(null) throws for the immutable collections of List.of
+        for (Hex goal : goals) {
+            if (goal == null) {
+                throw new IllegalArgumentException("Invalid flow field goals: " + goals);
+            }
+        }
+        goalHexes.clear();
+        goalHexes.addAll(goals);
+        rebuild = true;
+        pendingCount = 0;
+    }
+
+    @Override
+    public synchronized void onHexTypeChanged(HexGrid grid, int index, HexType oldType,
+                                              HexType newType) {
+        if (rebuild) {
+            return;
+        }
+        if (pendingCount == pending.length) {
+            pending = Arrays.copyOf(pending, pendingCount * 2);
+        }
+        pending[pendingCount++] = index;
+    }
+
+    @Override
+    public synchronized void onGridRebuilt(HexGrid grid) {
+        rebuild = true;
+        pendingCount = 0;
+    }
+
+    /**
+     * Brings the field up to date with the grid
+     *
+     * @return the number of hexes expanded, proportional to the area whose
+     * distances changed
+     */
+    public synchronized int refresh() {
+        // Drain pending edits before pinning, so edits published later are
+        // seen again by the next refresh
+        boolean full = rebuild;
+        int editCount = pendingCount;
+        if (edits.length < editCount) {
+            edits = new int[pending.length];
+        }
+        System.arraycopy(pending, 0, edits, 0, editCount);
+        rebuild = false;
+        pendingCount = 0;
+        snapshot = grid.snapshot();
+        changedCount = 0;
+
+        if (full) {
+            initialize();
+        } else {
+            for (int i = 0; i < editCount; i++) {
+                // Only the cost of stepping onto the edited hex changed
+                forEachNeighbor(edits[i], true);
+            }
+        }
+        int expanded = computeDistances(!full);
+        if (full) {
+            for (int i = 0; i < directions.length; i++) {
+                updateDirection(i);
+            }
+        } else {
+            for (int i = 0; i < editCount; i++) {
+                forEachNeighbor(edits[i], false);
+            }
+            for (int i = 0; i < changedCount; i++) {
+                updateDirection(changed[i]);
+                forEachNeighbor(changed[i], false);
+            }
+        }
+        return expanded;
+    }
+
+    private void initialize() {
+        int cellCount = snapshot.getCellCount();
+        int[] goals = new int[goalHexes.size()];
+        goalSet.clear();
+        for (int i = 0; i < goals.length; i++) {
+            goals[i] = snapshot.indexOf(goalHexes.get(i));
+            if (goals[i] < 0) {
+                // Try again from scratch once the goals are back on the grid
+                rebuild = true;
+                throw new IllegalArgumentException(
+                    "Flow field goals must be on the grid: " + goalHexes.get(i));
+            }
+            goalSet.set(goals[i]);
+        }
+        if (g.length != cellCount) {
+            g = new double[cellCount];
+            rhs = new double[cellCount];
+            directions = new byte[cellCount];
+        }
+        Arrays.fill(g, Double.POSITIVE_INFINITY);
+        Arrays.fill(rhs, Double.POSITIVE_INFINITY);
+        if (open == null || open.capacity() < cellCount) {
+            open = new IndexedHeap(Math.max(1, cellCount));
+        } else {
+            open.clear();
+        }
+        for (int goal : goals) {
+            rhs[goal] = 0.0D;
+            open.push(goal, 0.0D);
+        }
+    }
+
+    /**
+     * Re-evaluates the neighbors of a hex, either their distances or their
+     * directions
+     */
+    private void forEachNeighbor(int index, boolean distances) {
+        for (int d = 0; d < 6; ++d) {
+            int neighbor = index + snapshot.getNeighborOffset(d);
+            if (!snapshot.hasHexAt(neighbor)) {
+                continue;
+            }
+            if (distances) {
+                updateVertex(neighbor);
+            } else {
+                updateDirection(neighbor);
+            }
+        }
+    }
+
+    /**
+     * Recomputes the one-step lookahead of a hex and queues it if it is no
+     * longer consistent
+     */
+    private void updateVertex(int index) {
+        if (!goalSet.get(index)) {
+            double best = Double.POSITIVE_INFINITY;
+            int mask = snapshot.getNeighborMask(index);
+            for (int d = 0; d < 6; ++d) {
+                if ((mask & (1 << d)) != 0) {
+                    int next = index + snapshot.getNeighborOffset(d);
+                    best = Math.min(best, snapshot.getMovementCost(next, d) + g[next]);
+                }
+            }
+            rhs[index] = best;
+        }
+        if (g[index] != rhs[index]) {
+            open.push(index, Math.min(g[index], rhs[index]));
+        } else {
+            open.remove(index);
+        }
+    }
+
+    /**
+     * Settles every inconsistent hex, cheapest first
+     *
+     * @param track whether to record the hexes whose distance changed
+     * @return the number of hexes expanded
+     */
+    private int computeDistances(boolean track) {
+        int expanded = 0;
+        while (!open.isEmpty()) {
+            int current = open.poll();
+            expanded++;
+            if (track) {
+                if (changedCount == changed.length) {
+                    changed = Arrays.copyOf(changed, changedCount * 2);
+                }
+                changed[changedCount++] = current;
+            }
+            if (g[current] > rhs[current]) {
+                g[current] = rhs[current];
+            } else {
+                g[current] = Double.POSITIVE_INFINITY;
+                updateVertex(current);
+            }
+            if (snapshot.isPassable(current)) {
+                // Nothing can step onto a wall
+                forEachNeighbor(current, true);
+            }
+        }
+        return expanded;
+    }
+
+    private void updateDirection(int index) {
+        byte direction = NO_DIRECTION;
+        if (g[index] != Double.POSITIVE_INFINITY && !goalSet.get(index)) {
+            double best = Double.POSITIVE_INFINITY;
+            int mask = snapshot.getNeighborMask(index);
+            for (int d = 0; d < 6; ++d) {
+                if ((mask & (1 << d)) != 0) {
+                    int next = index + snapshot.getNeighborOffset(d);
+                    double through = snapshot.getMovementCost(next, d) + g[next];
+                    if (through < best) {
+                        best = through;
+                        direction = (byte) d;
+                    }
+                }
+            }
+        }
+        directions[index] = direction;
+    }
+
+    /**
+     * @return the direction to step in from a hex, as an index into
+     * {@link Hex#DIRECTIONS}, or {@link #NO_DIRECTION} at a goal or where no
+     * goal can be reached
+     */
+    public synchronized byte getDirection(Hex hex) {
+        int index = indexOf(hex);
+        return index < 0 ? NO_DIRECTION : directions[index];
+    }
+
+    /**
+     * @return the hex to step onto from a hex, or null at a goal or where no
+     * goal can be reached
+     */
+    public synchronized Hex next(Hex hex) {
+        int index = indexOf(hex);
+        if (index < 0 || directions[index] == NO_DIRECTION) {
+            return null;
+        }
+        return snapshot.getHexAt(index + snapshot.getNeighborOffset(directions[index]));
+    }
+
+    /**
+     * @return the cost of reaching the nearest goal from a hex, or infinity if
+     * none can be reached
+     */
+    public synchronized double getDistance(Hex hex) {
+        int index = indexOf(hex);
+        return index < 0 ? Double.POSITIVE_INFINITY : g[index];
+    }
+
+    /**
+     * @return a copy of the direction bytes, laid out like the cell indices of
+     * the grid version last refreshed
+     */
+    public synchronized byte[] getDirections() {
+        return directions.clone();
+    }
+
+    private int indexOf(Hex hex) {
+        if (snapshot == null) {
+            throw new IllegalStateException("Flow field has not been refreshed");
+        }
+        return snapshot.indexOf(hex);
+    }
+}
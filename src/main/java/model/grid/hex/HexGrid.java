@@ -7,12 +7,13 @@ import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
 import javafx.scene.text.Font;
 import javafx.scene.text.TextAlignment;
-import javafx.scene.transform.Affine;
 import util.IntPoint2D;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class HexGrid {
 
@@ -24,97 +25,310 @@ public class HexGrid {
     static {
         COLORS.put(HexType.WALL, Color.MEDIUMBLUE);
         COLORS.put(HexType.DIRT, Color.SANDYBROWN.darker());
+        COLORS.put(HexType.SAND, Color.KHAKI);
+        COLORS.put(HexType.FOREST, Color.FORESTGREEN.darker());
+        COLORS.put(HexType.SWAMP, Color.DARKOLIVEGREEN);
+        COLORS.put(HexType.WATER, Color.LIGHTSKYBLUE);
         COLORS.put(HexType.START, Color.GREEN);
         COLORS.put(HexType.END, Color.RED);
     }
 
-    private HashMap<IntPoint2D, Hex> map = new HashMap<>();
-    private HashMap<IntPoint2D, HexType> hexTypes = new HashMap<>();
+    private static final HexType[] TYPES = HexType.values();
+    private static final byte NO_HEX = HexGridState.NO_HEX;
+
     private HexLayout layout;
 
     private int mapWidth, mapHeight;
+    private MapShape mapShape;
+
+    /*
+     * Readers pin the current version with a single volatile read; writers
+     * publish a new version that shares every untouched chunk with the old
+     * one. Snapshots pin one version forever.
+     */
+    private volatile HexGridState state = HexGridState.EMPTY;
+    private final boolean frozen;
+    private HexGrid lastSnapshot;
+    private final List<HexGridListener> listeners = new CopyOnWriteArrayList<>();
+    // Corner scratch space of the drawing methods, which run on the
+    // application thread only
+    private final double[] cornerX = new double[6];
+    private final double[] cornerY = new double[6];
 
     public HexGrid(Point2D size, Point2D dimensions) {
         this(Point2D.ZERO, size, dimensions);
     }
 
     public HexGrid(Point2D origin, Point2D size, Point2D dimensions) {
-        layout = new HexLayout(HexOrientation.POINTY, size, origin);
+        this(HexOrientation.POINTY, origin, size, dimensions);
+    }
+
+    public HexGrid(HexOrientation orientation, Point2D origin, Point2D size,
+                   Point2D dimensions) {
+        layout = new HexLayout(orientation, size, origin);
         mapWidth = (int) dimensions.getX();
         mapHeight = (int) dimensions.getY();
+        frozen = false;
+    }
+
+    private HexGrid(HexGrid grid, HexGridState state) {
+        layout = grid.layout;
+        mapWidth = grid.mapWidth;
+        mapHeight = grid.mapHeight;
+        mapShape = grid.mapShape;
+        this.state = state;
+        frozen = true;
+    }
+
+    /**
+     * Pins the current version of the grid without locking or copying. Later
+     * edits to this grid do not affect the snapshot, and the snapshot itself
+     * cannot be edited.
+     *
+     * @return a read-only view of the current version, or this grid if
+     * already frozen
+     */
+    public HexGrid snapshot() {
+        if (frozen) {
+            return this;
+        }
+        HexGridState current = state;
+        HexGrid snapshot = lastSnapshot;
+        if (snapshot == null || snapshot.state != current) {
+            snapshot = new HexGrid(this, current);
+            lastSnapshot = snapshot;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Pins the current version of the grid like {@link #snapshot()}, but
+     * prices its steps with another cost model. Every agent profile can
+     * search the same version of the grid through a view of its own, while
+     * the grid keeps its own model for everything listening to it.
+     *
+     * @param costModel the model the view's movement costs come from
+     * @return a read-only view of the current version
+     */
+    public HexGrid snapshot(HexCostModel costModel) {
+        HexGridState current = state;
+        if (current.costs.model == costModel) {
+            return snapshot();
+        }
+        return new HexGrid(this, current.withCosts(current.version,
+            HexCostTable.compile(costModel)));
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * @return a number that increases every time the grid is edited
+     */
+    public long getVersion() {
+        return state.version;
+    }
+
+    HexGridState getState() {
+        return state;
+    }
+
+    public HexLayout getLayout() {
+        return layout;
+    }
+
+    public int getMapWidth() {
+        return mapWidth;
+    }
+
+    public int getMapHeight() {
+        return mapHeight;
+    }
+
+    /**
+     * @return the shape the grid was last populated with, or null if it is
+     * empty or was loaded from a region of a larger map
+     */
+    public MapShape getMapShape() {
+        return mapShape;
+    }
+
+    public HexCostModel getCostModel() {
+        return state.costs.model;
+    }
+
+    /**
+     * Replaces the movement costs of the grid. The model is compiled into a
+     * table right away, so later changes to a mutable model only take effect
+     * once it is installed again. Listeners see the change as a rebuild,
+     * since it may change the cost of any path.
+     *
+     * @param costModel the model to price every step with
+     */
+    public synchronized void setCostModel(HexCostModel costModel) {
+        checkMutable();
+        HexCostTable costs = HexCostTable.compile(costModel);
+        state = state.withCosts(state.version + 1, costs);
+        fireGridRebuilt();
+    }
+
+    public void addListener(HexGridListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(HexGridListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void fireGridRebuilt() {
+        for (HexGridListener listener : listeners) {
+            listener.onGridRebuilt(this);
+        }
     }
 
-    public void populate(MapShape shape) {
-        map.clear();
+    private void checkMutable() {
+        if (frozen) {
+            throw new IllegalStateException("Grid snapshots are read-only");
+        }
+    }
+
+    public synchronized void populate(MapShape shape) {
+        checkMutable();
+        // Every shape covers one contiguous run of hexes per row
+        int[] rows = shapeRows(shape);
+        int[] span = new int[2];
+        int qLow = Integer.MAX_VALUE, rLow = Integer.MAX_VALUE;
+        int qHigh = Integer.MIN_VALUE, rHigh = Integer.MIN_VALUE;
+        for (int r = rows[0]; r <= rows[1]; r++) {
+            if (shapeSpan(shape, r, span)) {
+                qLow = Math.min(qLow, span[0]);
+                qHigh = Math.max(qHigh, span[1] - 1);
+                rLow = Math.min(rLow, r);
+                rHigh = Math.max(rHigh, r);
+            }
+        }
+        if (qLow > qHigh) {
+            reset();
+            return;
+        }
+        int qMin = qLow - 1;
+        int rMin = rLow - 1;
+        int stride = qHigh - qMin + 2;
+        int rowCount = rHigh - rMin + 2;
+        if ((long) stride * rowCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                "Map of " + stride + " x " + rowCount + " cells is too large to index");
+        }
+        // Cells are generated chunk by chunk; open terrain is never allocated
+        byte empty = (byte) HexType.EMPTY.ordinal();
+        state = HexGridState.of(state.version + 1, qMin, rMin, stride, rowCount, state.costs,
+            (from, cells, offset, length) -> {
+                Arrays.fill(cells, offset, offset + length, NO_HEX);
+                int[] run = new int[2];
+                int end = from + length;
+                for (int index = from; index < end; ) {
+                    int rowStart = index - index % stride;
+                    int rowEnd = Math.min(rowStart + stride, end);
+                    if (shapeSpan(shape, rowStart / stride + rMin, run)) {
+                        int first = Math.max(rowStart + run[0] - qMin, index);
+                        int last = Math.min(rowStart + run[1] - qMin, rowEnd);
+                        if (first < last) {
+                            Arrays.fill(cells, offset + first - from, offset + last - from, empty);
+                        }
+                    }
+                    index = rowEnd;
+                }
+            });
+        mapShape = shape;
+        fireGridRebuilt();
+    }
+
+    /**
+     * Replaces the whole contents of the grid at once, as one rebuild
+     *
+     * @param cells the stride * rows cells, with a border of NO_HEX all around
+     */
+    synchronized void load(MapShape shape, int qMin, int rMin, int stride, int rows,
+                           HexGridState.CellSource cells) {
+        checkMutable();
+        state = HexGridState.of(state.version + 1, qMin, rMin, stride, rows, state.costs, cells);
+        mapShape = shape;
+        fireGridRebuilt();
+    }
+
+    /**
+     * @return the first and last r that may hold hexes of the shape
+     */
+    private int[] shapeRows(MapShape shape) {
         switch (shape) {
             case HEXAGONAL:
-                for (int q = -mapWidth; q <= mapWidth; q++) {
-                    int r1 = Math.max(-mapWidth, -q - mapWidth);
-                    int r2 = Math.min(mapWidth, -q + mapWidth);
-                    for (int r = r1; r <= r2; r++) {
-                        map.put(new IntPoint2D(q, r), new Hex(q, r));
-                    }
+                return new int[] { -mapWidth, mapWidth };
+            case RECTANGULAR:
+                if (layout.getOrientation().equals(HexOrientation.POINTY)) {
+                    int rStart = -Math.floorDiv(mapHeight, 2);
+                    return new int[] { rStart, rStart + mapHeight - 1 };
                 }
-                break;
+                // Flat columns shift up by one row every two columns
+                return new int[] { -(Math.max(mapWidth, 0) >> 1), mapHeight - 1 };
+            default:
+                return new int[] { 0, -1 };
+        }
+    }
+
+    /**
+     * Finds the run of hexes of the shape in one row
+     *
+     * @param span receives the first q of the run and the q just past it
+     * @return whether the row holds any hex of the shape
+     */
+    private boolean shapeSpan(MapShape shape, int r, int[] span) {
+        switch (shape) {
+            case HEXAGONAL:
+                span[0] = Math.max(-mapWidth, -r - mapWidth);
+                span[1] = Math.min(mapWidth, -r + mapWidth) + 1;
+                return Math.abs(r) <= mapWidth && span[0] < span[1];
             case RECTANGULAR:
                 HexOrientation o = layout.getOrientation();
                 if (o.equals(HexOrientation.POINTY)) {
                     int qStart = -Math.floorDiv(mapWidth, 2);
-                    int qEnd = qStart + mapWidth;
                     int rStart = -Math.floorDiv(mapHeight, 2);
-                    int rEnd = rStart + mapHeight;
-                    for (var r = rStart; r < rEnd; r++) {
-                        var rOffset = -Math.floorDiv(r, 2);
-                        for (var q = qStart + rOffset; q < qEnd + rOffset; q++) {
-                            map.put(new IntPoint2D(q, r), new Hex(q, r));
-                        }
-                    }
+                    // Odd rows are pushed half a hex right of even ones
+                    span[0] = qStart - Math.floorDiv(r, 2);
+                    span[1] = span[0] + mapWidth;
+                    return r >= rStart && r < rStart + mapHeight && mapWidth > 0;
                 } else if (o.equals(HexOrientation.FLAT)) {
-                    for (int q = 0; q < mapWidth; q++) {
-                        int q_offset = q >> 1; // or q>>1
-                        for (int r = -q_offset; r < mapHeight - q_offset; r++) {
-                            map.put(new IntPoint2D(q, r), new Hex(q, r));
-                        }
-                    }
+                    // Columns q with 0 <= r + (q >> 1) < mapHeight
+                    span[0] = Math.max(0, -2 * r);
+                    span[1] = Math.min(mapWidth, 2 * (mapHeight - r));
+                    return span[0] < span[1];
                 }
-                break;
+                return false;
             default:
-                break;
+                return false;
         }
     }
 
-    public void reset() {
-        map.clear();
-        hexTypes.clear();
+    public synchronized void reset() {
+        checkMutable();
+        state = HexGridState.of(state.version + 1, 0, 0, 0, 0, new byte[0], state.costs);
+        mapShape = null;
+        fireGridRebuilt();
     }
 
+    /**
+     * Paints the whole grid once. To keep a canvas up to date as the grid is
+     * edited, use a {@link HexGridRenderer} instead.
+     */
     public void draw(Canvas canvas, Color background) {
-        GraphicsContext ctx = canvas.getGraphicsContext2D();
-        ctx.setTransform(new Affine());
-        ctx.setFill(background);
-        ctx.fillRect(0, 0,
-            canvas.getWidth(), canvas.getHeight());
-        ctx.translate(canvas.getWidth() / 2, canvas.getHeight() / 2);
-        for (Hex hex : map.values()) {
-            drawHex(hex, ctx);
-            Color hexColor = COLORS.getOrDefault(getHexType(hex), null);
-            if (hexColor != null) {
-                ctx.setFill(hexColor);
-                fillHex(hex, ctx);
-            }
-        }
+        HexGridRenderer renderer = new HexGridRenderer(this, canvas, background);
+        renderer.repaint();
+        renderer.detach();
     }
 
     public void drawHex(Hex hex, GraphicsContext ctx) {
-        List<Point2D> corners = layout.corners(hex);
-        double[] x = new double[6];
-        double[] y = new double[6];
-        for (int i = 0; i < 6; ++i) {
-            Point2D corner = corners.get(i);
-            x[i] = corner.getX();
-            y[i] = corner.getY();
-        }
-        ctx.strokePolygon(x, y, 6);
+        layout.corners(hex.q(), hex.r(), cornerX, cornerY);
+        ctx.strokePolygon(cornerX, cornerY, 6);
     }
 
     public void drawText(Hex hex, GraphicsContext ctx) {
@@ -129,70 +343,333 @@ public class HexGrid {
     }
 
     public void fillHex(Hex hex, GraphicsContext ctx) {
-        List<Point2D> corners = layout.corners(hex);
-        double[] x = new double[6];
-        double[] y = new double[6];
-        for (int i = 0; i < 6; ++i) {
-            Point2D corner = corners.get(i);
-            x[i] = corner.getX();
-            y[i] = corner.getY();
-        }
-        ctx.fillPolygon(x, y, 6);
+        layout.corners(hex.q(), hex.r(), cornerX, cornerY);
+        ctx.fillPolygon(cornerX, cornerY, 6);
+    }
+
+    /**
+     * @return the size of the index space used by the index-based accessors
+     */
+    public int getCellCount() {
+        return state.getCellCount();
+    }
+
+    /**
+     * @return the number of fixed-size chunks the index space is split into
+     */
+    public int getChunkCount() {
+        return state.getChunkCount();
+    }
+
+    /**
+     * @return the number of chunks of cell types and neighbor masks that the
+     * current version stores on its own; every other chunk is uniform and
+     * shared, so this is what the grid's memory grows with
+     */
+    public int getAllocatedChunkCount() {
+        return state.getAllocatedChunkCount();
+    }
+
+    /**
+     * @return the number of indices per row; the index of the hex in column c
+     * of row r of the padded bounding box is r * getRowLength() + c
+     */
+    public int getRowLength() {
+        return state.stride;
+    }
+
+    /**
+     * @return the number of rows of the padded bounding box
+     */
+    public int getRowCount() {
+        return state.rows;
+    }
+
+    /**
+     * Maps axial coordinates to a flat cell index
+     *
+     * @return the index of the hex at (q, r), or -1 if there is none
+     */
+    public int indexOf(int q, int r) {
+        return state.indexOf(q, r);
+    }
+
+    /**
+     * @param key packed axial coordinates, as made by {@link Hex#key(int, int)}
+     */
+    public int indexOfKey(long key) {
+        return indexOf(Hex.qOfKey(key), Hex.rOfKey(key));
+    }
+
+    public int indexOf(IntPoint2D point) {
+        return indexOf(point.getX(), point.getY());
+    }
+
+    public int indexOf(Hex hex) {
+        return indexOf(hex.q(), hex.r());
+    }
+
+    public int qAt(int index) {
+        return state.qAt(index);
+    }
+
+    public int rAt(int index) {
+        return state.rAt(index);
+    }
+
+    public boolean hasHexAt(int index) {
+        return state.cell(index) != NO_HEX;
+    }
+
+    /**
+     * @return whether the index holds a hex that is not a wall
+     */
+    public boolean isPassable(int index) {
+        return HexGridState.isPassable(state.cell(index));
     }
 
     public boolean hasHexAt(IntPoint2D point) {
-        return map.containsKey(point);
+        return indexOf(point) >= 0;
     }
 
     public Hex getHexAt(IntPoint2D point) {
-        return map.getOrDefault(point, null);
+        int index = indexOf(point);
+        return index < 0 ? null : getHexAt(index);
+    }
+
+    public Hex getHexAt(int index) {
+        HexGridState s = state;
+        return Hex.of(s.qAt(index), s.rAt(index));
+    }
+
+    /**
+     * @return the key of the hex at the given index
+     */
+    public long keyAt(int index) {
+        HexGridState s = state;
+        return Hex.key(s.qAt(index), s.rAt(index));
     }
 
     public boolean hasHexAtCoordinates(Point2D coords) {
-        return map.containsKey(layout.getRoundedAxialCoordinate(coords));
+        return indexAtCoordinates(coords) >= 0;
     }
 
     public Hex getHexAtCoordinates(Point2D coords) {
-        return getHexAt(layout.getRoundedAxialCoordinate(coords));
+        int index = indexAtCoordinates(coords);
+        return index < 0 ? null : getHexAt(index);
+    }
+
+    /**
+     * @return the index of the hex under a pixel, or -1 if there is none
+     */
+    public int indexAtCoordinates(Point2D coords) {
+        return indexOfKey(layout.getRoundedAxialKey(coords.getX(), coords.getY()));
     }
 
     public List<Hex> getNeighbors(Hex hex) {
         List<Hex> neighbors = new ArrayList<>();
-        IntPoint2D hexPoint = hex.getPoint();
+        int index = indexOf(hex);
+        if (index >= 0) {
+            forEachNeighbor(index, (neighbor, direction) ->
+                neighbors.add(getHexAt(neighbor)));
+        }
+        return neighbors;
+    }
+
+    public interface NeighborVisitor {
+        void visit(int neighbor, int direction);
+    }
+
+    /**
+     * Visits every non-wall neighbor of a hex without allocating
+     *
+     * @param index the index of the hex
+     * @param visitor receives the index and direction of each neighbor
+     */
+    public void forEachNeighbor(int index, NeighborVisitor visitor) {
+        HexGridState s = state;
+        int mask = s.mask(index);
         for (int i = 0; i < 6; ++i) {
-            IntPoint2D neighborLocation = hexPoint.add(Hex.POINT_DIRECTIONS[i]);
-            Hex neighbor = getHexAt(neighborLocation);
-            if (neighbor != null && getHexType(neighbor) != HexType.WALL) {
-                neighbors.add(neighbor);
+            if ((mask & (1 << i)) != 0) {
+                visitor.visit(index + s.neighborOffset(i), i);
             }
         }
-        return neighbors;
     }
 
+    /**
+     * @param index the index of a hex
+     * @return a mask whose bit d is set when the neighbor in direction d
+     * exists and is not a wall
+     */
+    public int getNeighborMask(int index) {
+        return state.mask(index);
+    }
+
+    /**
+     * @param direction direction index in [0, 5], as in {@link Hex#DIRECTIONS}
+     * @return the index offset between a hex and its neighbor in that direction
+     */
+    public int getNeighborOffset(int direction) {
+        return state.neighborOffset(direction);
+    }
+
+    /**
+     * @return the direction of the step from one index to the other, or -1
+     * if they are not neighbors
+     */
+    public int getNeighborDirection(int from, int to) {
+        HexGridState s = state;
+        for (int i = 0; i < 6; ++i) {
+            if (from + s.neighborOffset(i) == to) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the cost of stepping between two hexes, or of entering the
+     * second one by its cheapest direction if they are not neighbors
+     */
     public double getMovementCost(Hex from, Hex to) {
-        if (getHexType(to) == HexType.DIRT) {
-            return 3.0;
+        HexGridState s = state;
+        int index = s.indexOf(to.q(), to.r());
+        byte cell = index < 0 ? (byte) HexType.EMPTY.ordinal() : s.cell(index);
+        for (int d = 0; d < 6; ++d) {
+            Hex direction = Hex.DIRECTIONS[d];
+            if (to.q() - from.q() == direction.q() && to.r() - from.r() == direction.r()) {
+                return s.costs.cost(cell, d);
+            }
         }
-        return 1.0;
+        return s.costs.cheapest(cell);
+    }
+
+    /**
+     * @param to the index of the hex being entered
+     * @param direction the direction of the step onto it, as in
+     *                  {@link Hex#DIRECTIONS}
+     * @return the cost of moving into that hex by that step
+     */
+    public double getMovementCost(int to, int direction) {
+        return state.cost(to, direction);
+    }
+
+    /**
+     * @param to the index of the hex being entered
+     * @return the cost of moving into that hex by its cheapest direction;
+     * the cost of any step onto it unless the model depends on direction
+     */
+    public double getMovementCost(int to) {
+        return state.costs.cheapest(state.cell(to));
+    }
+
+    /**
+     * @return the cost of moving into a hex of the given type by its
+     * cheapest direction, infinite for walls
+     */
+    public double getMovementCost(HexType type) {
+        return state.costs.cheapest(type.ordinal());
+    }
+
+    /**
+     * @return the cost of moving into a hex of the given type by a step in
+     * the given direction
+     */
+    public double getMovementCost(HexType type, int direction) {
+        return state.costs.cost((byte) type.ordinal(), direction);
+    }
+
+    /**
+     * @return the cost of the cheapest step onto any hex, which scales the
+     * hex distance into a lower bound on path costs
+     */
+    public double getBaseMovementCost() {
+        return state.costs.baseCost;
+    }
+
+    /**
+     * @return whether every step onto the hex costs the base cost
+     */
+    boolean isBaseMovementCost(int index) {
+        return state.costs.isBase(state.cell(index));
+    }
+
+    /**
+     * @return the cost of the most expensive step onto any hex
+     */
+    public double getMaxMovementCost() {
+        return state.costs.maxCost;
+    }
+
+    /**
+     * @return the cost of a path through every cell of the grid, which no
+     * path that visits each hex once can exceed
+     */
+    public double getMaxPathCost() {
+        return state.costs.maxCost * state.getCellCount();
+    }
+
+    /**
+     * @return whether every movement cost is a whole number, so path costs
+     * can be ordered with integer buckets
+     */
+    public boolean hasIntegralCosts() {
+        return state.costs.integral;
     }
 
     public double getStraightDistance(Hex from, Hex to) {
         return from.distanceTo(to);
     }
 
+    public double getStraightDistance(int from, int to) {
+        HexGridState s = state;
+        int dq = s.qAt(from) - s.qAt(to);
+        int dr = s.rAt(from) - s.rAt(to);
+        return (Math.abs(dq) + Math.abs(dr) + Math.abs(dq + dr)) / 2;
+    }
+
+    public HexType getHexType(int index) {
+        return TYPES[state.cell(index)];
+    }
+
     public HexType getHexType(IntPoint2D point) {
-        return hexTypes.getOrDefault(point, HexType.EMPTY);
+        int index = indexOf(point);
+        return index < 0 ? HexType.EMPTY : getHexType(index);
     }
 
     public HexType getHexType(Hex hex) {
-        return getHexType(hex.getPoint());
+        int index = indexOf(hex);
+        return index < 0 ? HexType.EMPTY : getHexType(index);
+    }
+
+    public synchronized void setHexType(int index, HexType type) {
+        checkMutable();
+        HexGridState s = state;
+        if (s.cell(index) == NO_HEX) {
+            throw new IllegalArgumentException("No hex at index " + index);
+        }
+        HexType oldType = TYPES[s.cell(index)];
+        if (oldType != type) {
+            state = s.withCell(index, (byte) type.ordinal());
+            for (HexGridListener listener : listeners) {
+                listener.onHexTypeChanged(this, index, oldType, type);
+            }
+        }
     }
 
     public void setHexType(IntPoint2D point, HexType type) {
-        hexTypes.put(point, type);
+        setHexType(requireIndex(point.getX(), point.getY()), type);
     }
 
     public void setHexType(Hex hex, HexType type) {
-        setHexType(hex.getPoint(), type);
+        setHexType(requireIndex(hex.q(), hex.r()), type);
+    }
+
+    private int requireIndex(int q, int r) {
+        int index = indexOf(q, r);
+        if (index < 0) {
+            throw new IllegalArgumentException("No hex at (" + q + ", " + r + ")");
+        }
+        return index;
     }
 }
@@ -0,0 +1,28 @@
+package model.grid.hex;
+
+/**
+ * Notified after a {@link HexGrid} publishes an edit. Callbacks run on the
+ * editing thread while the grid holds its write lock, so they should only
+ * record what changed.
+ */
+public interface HexGridListener {
+
+    /**
+     * Called after a single hex changes type
+     *
+     * @param grid the edited grid
+     * @param index the index of the hex
+     * @param oldType the previous type
+     * @param newType the new type
+     */
+    default void onHexTypeChanged(HexGrid grid, int index, HexType oldType,
+                                  HexType newType) { }
+
+    /**
+     * Called after the grid is repopulated or reset, when any index may have
+     * changed meaning
+     *
+     * @param grid the edited grid
+     */
+    default void onGridRebuilt(HexGrid grid) { }
+}
@@ -0,0 +1,648 @@
+package model.grid.hex;
+
+import javafx.animation.AnimationTimer;
+import javafx.beans.InvalidationListener;
+import javafx.geometry.Point2D;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Draws a {@link HexGrid} onto a canvas and keeps the drawing up to date by
+ * repainting only the hexes edited since the last paint.
+ *
+ * Hexes are drawn in batches: every outline goes into one path that is
+ * stroked once, and every hex of one color into one path that is filled
+ * once, so a paint costs a few canvas calls per color rather than several
+ * per hex. Corners come from offsets the layout computes once, and nothing
+ * is allocated per hex.
+ *
+ * The canvas shows a viewport of the layout: a center point and a scale.
+ * Only the rows and columns of hexes that overlap the viewport are drawn.
+ * Once hexes shrink below {@link #RASTER_HEX_PIXELS} on screen, the grid is
+ * drawn as a cached raster instead, one pixel per square block of cells in
+ * the average color of its hexes. The raster is at most
+ * {@link #MAX_RASTER_SIZE} pixels a side however large the grid, and edits
+ * only recolor the blocks they touch, so zoomed out frames cost the same
+ * on any map.
+ *
+ * Edits are recorded by the grid listener on whatever thread makes them.
+ * Painting happens on the JavaFX application thread, either on every pulse
+ * while the renderer is started or whenever {@link #repaint()} is called.
+ */
+public class HexGridRenderer implements HexGridListener {
+
+    /**
+     * Hexes with a smaller radius on screen are drawn from the raster
+     */
+    public static final double RASTER_HEX_PIXELS = 3.0D;
+    public static final int MAX_RASTER_SIZE = 2048;
+    public static final double MIN_SCALE = 1.0D / 256;
+    public static final double MAX_SCALE = 16.0D;
+
+    // Past this many pending hexes, one full redraw is cheaper
+    private static final int MAX_DIRTY = 4096;
+    // Polygons per path before it is flushed
+    private static final int BATCH_SIZE = 1024;
+    private static final HexType[] TYPES = HexType.values();
+    private static final byte NO_HEX = HexGridState.NO_HEX;
+
+    private final HexGrid grid;
+    private final Canvas canvas;
+    private Color background;
+    private Color stroke = Color.WHITE;
+    private double lineWidth = 1.0D;
+
+    // The layout point shown at the center of the canvas, and the zoom
+    private double centerX = 0.0D, centerY = 0.0D;
+    private double scale = 1.0D;
+
+    // Hexes edited since the last paint, guarded by this
+    private int[] dirty = new int[64];
+    private int dirtyCount = 0;
+    private boolean fullRedraw = true;
+
+    /*
+     * The raster and the blocks of it edited since it was last brought up
+     * to date, guarded by this. Block (bx, by) averages the cells of rows
+     * [by, by + 1) << blockShift and columns [bx, bx + 1) << blockShift of
+     * the padded box of the version it was built from.
+     */
+    private WritableImage raster;
+    private HexGridState rasterState;
+    private int blockShift;
+    private int rasterStride;
+    private final BitSet dirtyBlocks = new BitSet();
+
+    // Scratch space of the application thread
+    private int[] painting = new int[64];
+    private final int[][] cellsByType = new int[TYPES.length][64];
+    private final int[] countsByType = new int[TYPES.length];
+    private final double[] cornerX = new double[6];
+    private final double[] cornerY = new double[6];
+    private final int[] columns = new int[2];
+    private byte[] row = new byte[0];
+
+    private final InvalidationListener resizeListener = (observable) -> invalidate();
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            repaint();
+        }
+    };
+
+    /**
+     * @param grid the grid to draw, which the renderer starts listening to
+     * @param canvas the canvas to draw on
+     * @param background the color around and behind the hexes
+     */
+    public HexGridRenderer(HexGrid grid, Canvas canvas, Color background) {
+        this.grid = grid;
+        this.canvas = canvas;
+        this.background = background;
+        grid.addListener(this);
+        canvas.widthProperty().addListener(resizeListener);
+        canvas.heightProperty().addListener(resizeListener);
+    }
+
+    /**
+     * Stops repainting and listening to the grid and the canvas
+     */
+    public void detach() {
+        stop();
+        grid.removeListener(this);
+        canvas.widthProperty().removeListener(resizeListener);
+        canvas.heightProperty().removeListener(resizeListener);
+    }
+
+    /**
+     * Repaints whatever changed on every pulse, until stopped
+     */
+    public void start() {
+        timer.start();
+    }
+
+    public void stop() {
+        timer.stop();
+    }
+
+    public HexGrid getGrid() {
+        return grid;
+    }
+
+    public Canvas getCanvas() {
+        return canvas;
+    }
+
+    public Color getBackground() {
+        return background;
+    }
+
+    public synchronized void setBackground(Color background) {
+        this.background = background;
+        raster = null;
+        invalidate();
+    }
+
+    public Color getStroke() {
+        return stroke;
+    }
+
+    /**
+     * @param stroke the color of the hex outlines, which also tints empty
+     *               hexes in the raster
+     */
+    public synchronized void setStroke(Color stroke) {
+        this.stroke = stroke;
+        raster = null;
+        invalidate();
+    }
+
+    public double getLineWidth() {
+        return lineWidth;
+    }
+
+    /**
+     * @param lineWidth the width of the hex outlines in screen pixels, at
+     *                  any scale
+     */
+    public void setLineWidth(double lineWidth) {
+        this.lineWidth = lineWidth;
+        invalidate();
+    }
+
+    public double getCenterX() {
+        return centerX;
+    }
+
+    public double getCenterY() {
+        return centerY;
+    }
+
+    public double getScale() {
+        return scale;
+    }
+
+    /**
+     * Moves the viewport
+     *
+     * @param centerX the x of the layout point to show at the canvas center
+     * @param centerY the y of the layout point to show at the canvas center
+     * @param scale screen pixels per layout unit, clamped to
+     *              [{@link #MIN_SCALE}, {@link #MAX_SCALE}]
+     */
+    public void setViewport(double centerX, double centerY, double scale) {
+        if (!(scale > 0.0D)) {
+            throw new IllegalArgumentException("Scale must be positive: " + scale);
+        }
+        this.centerX = centerX;
+        this.centerY = centerY;
+        this.scale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale));
+        invalidate();
+    }
+
+    /**
+     * Zooms in or out, keeping the layout point under a canvas pixel in place
+     *
+     * @param factor how many times larger everything gets
+     */
+    public void zoom(double factor, double canvasX, double canvasY) {
+        Point2D anchor = toLayout(canvasX, canvasY);
+        double newScale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale * factor));
+        setViewport(anchor.getX() - (canvasX - canvas.getWidth() / 2) / newScale,
+            anchor.getY() - (canvasY - canvas.getHeight() / 2) / newScale, newScale);
+    }
+
+    /**
+     * @return the layout point under a pixel of the canvas, as taken by
+     * {@link HexGrid#indexAtCoordinates(Point2D)}
+     */
+    public Point2D toLayout(double canvasX, double canvasY) {
+        return new Point2D((canvasX - canvas.getWidth() / 2) / scale + centerX,
+            (canvasY - canvas.getHeight() / 2) / scale + centerY);
+    }
+
+    /**
+     * @return whether the grid is currently drawn from the raster
+     */
+    public boolean isRasterized() {
+        Point2D size = grid.getLayout().getSize();
+        return Math.max(Math.abs(size.getX()), Math.abs(size.getY())) * scale <
+            RASTER_HEX_PIXELS;
+    }
+
+    /**
+     * Marks the whole canvas for repainting, wiping anything else drawn on it
+     */
+    public synchronized void invalidate() {
+        fullRedraw = true;
+        dirtyCount = 0;
+    }
+
+    /**
+     * Repaints the whole canvas right away
+     */
+    public void redraw() {
+        invalidate();
+        repaint();
+    }
+
+    @Override
+    public synchronized void onHexTypeChanged(HexGrid grid, int index, HexType oldType,
+                                              HexType newType) {
+        if (raster != null) {
+            dirtyBlocks.set((index / rasterStride >> blockShift) *
+                blocks(rasterStride) + (index % rasterStride >> blockShift));
+        }
+        if (fullRedraw) {
+            return;
+        }
+        if (dirtyCount == MAX_DIRTY) {
+            invalidate();
+            return;
+        }
+        if (dirtyCount == dirty.length) {
+            dirty = Arrays.copyOf(dirty, dirty.length * 2);
+        }
+        dirty[dirtyCount++] = index;
+    }
+
+    @Override
+    public synchronized void onGridRebuilt(HexGrid grid) {
+        raster = null;
+        invalidate();
+    }
+
+    /**
+     * Paints the hexes edited since the last paint, or the whole canvas if
+     * it was invalidated. Must be called on the application thread.
+     *
+     * @return the number of hexes painted one by one, which is zero while
+     * the grid is drawn from the raster
+     */
+    public int repaint() {
+        boolean full;
+        int count;
+        boolean rasterized = isRasterized();
+        HexGridState s;
+        synchronized (this) {
+            full = fullRedraw;
+            count = dirtyCount;
+            if (!full && count == 0) {
+                return 0;
+            }
+            // Swap buffers, so edits can be recorded while painting
+            int[] cells = dirty;
+            dirty = painting;
+            painting = cells;
+            fullRedraw = false;
+            dirtyCount = 0;
+            s = grid.getState();
+            if (rasterized) {
+                updateRaster(s);
+            }
+        }
+        GraphicsContext ctx = canvas.getGraphicsContext2D();
+        double width = canvas.getWidth();
+        double height = canvas.getHeight();
+        if (full || rasterized) {
+            ctx.setTransform(1.0D, 0.0D, 0.0D, 1.0D, 0.0D, 0.0D);
+            ctx.setFill(background);
+            ctx.fillRect(0.0D, 0.0D, width, height);
+        }
+        ctx.setTransform(scale, 0.0D, 0.0D, scale,
+            width / 2 - centerX * scale, height / 2 - centerY * scale);
+        if (rasterized) {
+            drawRaster(ctx);
+            return 0;
+        }
+        ctx.setStroke(stroke);
+        ctx.setLineWidth(lineWidth / scale);
+        Arrays.fill(countsByType, 0);
+
+        int painted = 0;
+        if (full) {
+            // Outlines are traced while sorting the hexes by type
+            ctx.beginPath();
+            double[] bounds = visibleBounds(width, height);
+            int[] rows = visibleRows(s, bounds);
+            for (int r = rows[0]; r <= rows[1]; r++) {
+                if (!visibleColumns(s, r, bounds, columns)) {
+                    continue;
+                }
+                int rowStart = (r - s.rMin) * s.stride - s.qMin;
+                for (int q = columns[0]; q <= columns[1]; q++) {
+                    int i = rowStart + q;
+                    byte cell = s.cell(i);
+                    if (cell == NO_HEX) {
+                        continue;
+                    }
+                    if (++painted % BATCH_SIZE == 0) {
+                        ctx.stroke();
+                        ctx.beginPath();
+                    }
+                    trace(ctx, s, i);
+                    addByType(cell, i);
+                }
+            }
+            ctx.stroke();
+        } else {
+            // Edits outside the viewport need no painting
+            double[] bounds = visibleBounds(width, height);
+            int[] cells = painting;
+            int visible = 0;
+            for (int i = 0; i < count; i++) {
+                if (s.cell(cells[i]) != NO_HEX && isVisible(s, cells[i], bounds)) {
+                    cells[visible++] = cells[i];
+                }
+            }
+            // Clear the old look of the edited hexes first
+            ctx.setFill(background);
+            fill(ctx, s, cells, visible);
+            ctx.beginPath();
+            for (int i = 0; i < visible; i++) {
+                if (++painted % BATCH_SIZE == 0) {
+                    ctx.stroke();
+                    ctx.beginPath();
+                }
+                trace(ctx, s, cells[i]);
+                addByType(s.cell(cells[i]), cells[i]);
+            }
+            ctx.stroke();
+        }
+        for (HexType type : TYPES) {
+            Color color = HexGrid.COLORS.get(type);
+            if (color != null && countsByType[type.ordinal()] > 0) {
+                ctx.setFill(color);
+                fill(ctx, s, cellsByType[type.ordinal()], countsByType[type.ordinal()]);
+            }
+        }
+        return painted;
+    }
+
+    /**
+     * @return the layout rectangle on screen, as { left, top, right, bottom },
+     * grown by the radius of a hex so that any hex overlapping it has its
+     * center inside
+     */
+    private double[] visibleBounds(double width, double height) {
+        Point2D size = grid.getLayout().getSize();
+        double margin = Math.max(Math.abs(size.getX()), Math.abs(size.getY()));
+        double halfWidth = width / 2 / scale + margin;
+        double halfHeight = height / 2 / scale + margin;
+        return new double[] {
+            centerX - halfWidth, centerY - halfHeight,
+            centerX + halfWidth, centerY + halfHeight
+        };
+    }
+
+    /**
+     * @return the first and last r of the box with hexes on screen
+     */
+    private int[] visibleRows(HexGridState s, double[] bounds) {
+        HexLayout layout = grid.getLayout();
+        double low = Double.POSITIVE_INFINITY;
+        double high = Double.NEGATIVE_INFINITY;
+        for (int corner = 0; corner < 4; corner++) {
+            double r = layout.getAxialCoordinate(new Point2D(
+                bounds[(corner & 1) == 0 ? 0 : 2], bounds[corner < 2 ? 1 : 3])).getY();
+            low = Math.min(low, r);
+            high = Math.max(high, r);
+        }
+        return new int[] {
+            (int) Math.max(s.rMin, Math.floor(low)),
+            (int) Math.min(s.rMin + s.rows - 1L, Math.ceil(high))
+        };
+    }
+
+    /**
+     * Finds the q of the hexes of a row whose centers are on screen. The
+     * center of a hex moves linearly with q along a row, so each side of the
+     * screen bounds q from one side.
+     *
+     * @param columns receives the first and last q, clipped to the box
+     * @return whether any hex of the row is on screen
+     */
+    private boolean visibleColumns(HexGridState s, int r, double[] bounds, int[] columns) {
+        HexLayout layout = grid.getLayout();
+        HexOrientation m = layout.getOrientation();
+        Point2D size = layout.getSize();
+        Point2D origin = layout.getOrigin();
+        double low = s.qMin;
+        double high = s.qMin + s.stride - 1.0D;
+        // x = a * q + b and y = c * q + d for the hexes of the row
+        double a = m.f0 * size.getX();
+        double b = m.f1 * size.getX() * r + origin.getX();
+        double c = m.f2 * size.getY();
+        double d = m.f3 * size.getY() * r + origin.getY();
+        double[] limits = { a, b, bounds[0], bounds[2], c, d, bounds[1], bounds[3] };
+        for (int k = 0; k < limits.length; k += 4) {
+            double slope = limits[k];
+            double offset = limits[k + 1];
+            if (slope == 0.0D) {
+                if (offset < limits[k + 2] || offset > limits[k + 3]) {
+                    return false;
+                }
+                continue;
+            }
+            double first = (limits[k + 2] - offset) / slope;
+            double last = (limits[k + 3] - offset) / slope;
+            low = Math.max(low, Math.min(first, last));
+            high = Math.min(high, Math.max(first, last));
+        }
+        columns[0] = (int) Math.ceil(low);
+        columns[1] = (int) Math.floor(high);
+        return columns[0] <= columns[1];
+    }
+
+    private boolean isVisible(HexGridState s, int index, double[] bounds) {
+        HexLayout layout = grid.getLayout();
+        HexOrientation m = layout.getOrientation();
+        Point2D size = layout.getSize();
+        Point2D origin = layout.getOrigin();
+        int q = s.qAt(index);
+        int r = s.rAt(index);
+        double x = (m.f0 * q + m.f1 * r) * size.getX() + origin.getX();
+        double y = (m.f2 * q + m.f3 * r) * size.getY() + origin.getY();
+        return x >= bounds[0] && x <= bounds[2] && y >= bounds[1] && y <= bounds[3];
+    }
+
+    /**
+     * @return the number of blocks covering a length of cells
+     */
+    private int blocks(int length) {
+        return Math.max(1, (length + (1 << blockShift) - 1) >> blockShift);
+    }
+
+    /**
+     * Builds the raster for the version being painted, or recolors the
+     * blocks edited since it was built. Called with the lock held.
+     */
+    private void updateRaster(HexGridState s) {
+        if (raster == null || rasterState == null || rasterState.stride != s.stride ||
+            rasterState.rows != s.rows || rasterState.qMin != s.qMin ||
+            rasterState.rMin != s.rMin) {
+            blockShift = 0;
+            while (blocks(s.stride) > MAX_RASTER_SIZE || blocks(s.rows) > MAX_RASTER_SIZE) {
+                blockShift++;
+            }
+            rasterStride = Math.max(1, s.stride);
+            raster = new WritableImage(blocks(s.stride), blocks(s.rows));
+            dirtyBlocks.clear();
+            PixelWriter writer = raster.getPixelWriter();
+            int[] argb = new int[blocks(s.stride)];
+            long[] sums = new long[5 * argb.length];
+            for (int by = 0; by < blocks(s.rows); by++) {
+                Arrays.fill(sums, 0L);
+                int lastRow = Math.min(s.rows, (by + 1) << blockShift);
+                for (int rowIndex = by << blockShift; rowIndex < lastRow; rowIndex++) {
+                    accumulateRow(s, rowIndex, 0, s.stride, sums);
+                }
+                for (int bx = 0; bx < argb.length; bx++) {
+                    argb[bx] = average(sums, bx);
+                }
+                writer.setPixels(0, by, argb.length, 1,
+                    PixelFormat.getIntArgbInstance(), argb, 0, argb.length);
+            }
+        } else {
+            PixelWriter writer = raster.getPixelWriter();
+            long[] sums = new long[5];
+            int blockColumns = blocks(s.stride);
+            for (int block = dirtyBlocks.nextSetBit(0); block >= 0;
+                 block = dirtyBlocks.nextSetBit(block + 1)) {
+                int bx = block % blockColumns;
+                int by = block / blockColumns;
+                Arrays.fill(sums, 0L);
+                int lastRow = Math.min(s.rows, (by + 1) << blockShift);
+                int from = bx << blockShift;
+                int to = Math.min(s.stride, (bx + 1) << blockShift);
+                for (int rowIndex = by << blockShift; rowIndex < lastRow; rowIndex++) {
+                    accumulateRow(s, rowIndex, from, to, sums);
+                }
+                // The sums of this block sit at the start of the array
+                writer.setArgb(bx, by, average(sums, 0));
+            }
+            dirtyBlocks.clear();
+        }
+        rasterState = s;
+    }
+
+    /**
+     * Adds the colors of a run of cells of one row to the sums of their
+     * blocks: five longs per block, for alpha coverage and red, green, blue
+     * in 0-255, and the cell count. Blocks are numbered from the first
+     * column of the run.
+     */
+    private void accumulateRow(HexGridState s, int rowIndex, int from, int to, long[] sums) {
+        if (row.length < s.stride) {
+            row = new byte[s.stride];
+        }
+        s.read(rowIndex * s.stride + from, row, 0, to - from);
+        int firstBlock = from >> blockShift;
+        for (int col = from; col < to; col++) {
+            int base = 5 * ((col >> blockShift) - firstBlock);
+            sums[base + 4]++;
+            byte cell = row[col - from];
+            if (cell == NO_HEX) {
+                continue;
+            }
+            Color color = HexGrid.COLORS.get(TYPES[cell]);
+            if (color == null) {
+                // Empty hexes are mostly outline once they are this small
+                color = background.interpolate(stroke, 0.5D);
+            }
+            sums[base]++;
+            sums[base + 1] += Math.round(color.getRed() * 255);
+            sums[base + 2] += Math.round(color.getGreen() * 255);
+            sums[base + 3] += Math.round(color.getBlue() * 255);
+        }
+    }
+
+    /**
+     * @return the average color of the hexes of a block, as opaque as the
+     * share of its cells that hold a hex
+     */
+    private static int average(long[] sums, int block) {
+        int base = 5 * block;
+        long hexes = sums[base];
+        if (hexes == 0) {
+            return 0;
+        }
+        int alpha = (int) (255 * hexes / Math.max(1, sums[base + 4]));
+        return alpha << 24 | (int) (sums[base + 1] / hexes) << 16 |
+            (int) (sums[base + 2] / hexes) << 8 | (int) (sums[base + 3] / hexes);
+    }
+
+    /**
+     * Draws the raster over the viewport. Image pixel (u, v) maps to the
+     * axial coordinates (qMin + u * block - 1/2, rMin + v * block - 1/2), so
+     * the layout matrix turns it into one affine transform.
+     */
+    private void drawRaster(GraphicsContext ctx) {
+        HexLayout layout = grid.getLayout();
+        HexOrientation m = layout.getOrientation();
+        Point2D size = layout.getSize();
+        Point2D origin = layout.getOrigin();
+        double block = 1 << blockShift;
+        double q0 = rasterState.qMin - 0.5D;
+        double r0 = rasterState.rMin - 0.5D;
+        ctx.save();
+        ctx.transform(m.f0 * size.getX() * block, m.f2 * size.getY() * block,
+            m.f1 * size.getX() * block, m.f3 * size.getY() * block,
+            (m.f0 * q0 + m.f1 * r0) * size.getX() + origin.getX(),
+            (m.f2 * q0 + m.f3 * r0) * size.getY() + origin.getY());
+        ctx.drawImage(raster, 0.0D, 0.0D);
+        ctx.restore();
+    }
+
+    private void addByType(byte cell, int index) {
+        if (HexGrid.COLORS.get(TYPES[cell]) == null) {
+            return;
+        }
+        int[] cells = cellsByType[cell];
+        int count = countsByType[cell];
+        if (count == cells.length) {
+            cells = Arrays.copyOf(cells, cells.length * 2);
+            cellsByType[cell] = cells;
+        }
+        cells[count] = index;
+        countsByType[cell] = count + 1;
+    }
+
+    /**
+     * Fills a run of hexes with the current fill color, in batched paths
+     */
+    private void fill(GraphicsContext ctx, HexGridState s, int[] cells, int count) {
+        ctx.beginPath();
+        int traced = 0;
+        for (int i = 0; i < count; i++) {
+            if (s.cell(cells[i]) == NO_HEX) {
+                continue;
+            }
+            if (++traced % BATCH_SIZE == 0) {
+                ctx.fill();
+                ctx.beginPath();
+            }
+            trace(ctx, s, cells[i]);
+        }
+        ctx.fill();
+    }
+
+    /**
+     * Adds the outline of a hex to the current path
+     */
+    private void trace(GraphicsContext ctx, HexGridState s, int index) {
+        grid.getLayout().corners(s.qAt(index), s.rAt(index), cornerX, cornerY);
+        ctx.moveTo(cornerX[0], cornerY[0]);
+        for (int i = 1; i < 6; i++) {
+            ctx.lineTo(cornerX[i], cornerY[i]);
+        }
+        ctx.closePath();
+    }
+}
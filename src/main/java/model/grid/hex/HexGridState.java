@@ -0,0 +1,398 @@
+package model.grid.hex;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * One immutable version of the contents of a {@link HexGrid}.
+ *
+ * The axial bounding box of the populated shape, padded by a one cell border,
+ * is laid out row by row (one row per r) as a flat index space, so the
+ * neighbor of a hex in a given direction is always at the same index offset.
+ * Per-cell bytes are stored in fixed-size chunks, reached through pages of
+ * chunk references. Editing a cell copies only the chunks it touches, the
+ * pages pointing to them and the short list of pages, and shares everything
+ * else with the previous version, so old versions stay valid for the readers
+ * still holding them and an edit costs the same however large the box is.
+ *
+ * A chunk whose bytes are all the same is not allocated at all: it points to
+ * a shared read-only chunk of that value. Open terrain and the slots of the
+ * box outside the map cost nothing but a reference, so memory grows with the
+ * amount of varied content rather than with the area of the box. A shared
+ * chunk is copied the first time a cell in it is edited.
+ */
+final class HexGridState {
+
+    static final int CHUNK_SHIFT = 12;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    // Chunks per page of chunk references
+    static final int PAGE_SHIFT = 8;
+    static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    /**
+     * Cell value for slots of the bounding box that are not part of the map
+     */
+    static final byte NO_HEX = -1;
+
+    private static final int ALL_DIRECTIONS = (1 << 6) - 1;
+
+    static final HexGridState EMPTY = new HexGridState(
+        0L, 0, 0, 0, 0, new int[6], new byte[0][], new byte[0][], HexCostTable.DEFAULT
+    );
+
+    /**
+     * Shared chunks with every byte set to the same value, by value & 0xFF
+     */
+    private static final AtomicReferenceArray<byte[]> UNIFORM_CHUNKS =
+        new AtomicReferenceArray<>(256);
+
+    /**
+     * Supplies the contents of a version being built, one run of cells at a time
+     */
+    interface CellSource {
+        /**
+         * Copies a run of consecutive cells
+         *
+         * @param from the index of the first cell, inside the box
+         * @param cells receives HexType ordinals or NO_HEX
+         * @param offset where the first cell goes
+         * @param length the number of cells, all inside the box
+         */
+        void read(int from, byte[] cells, int offset, int length);
+    }
+
+    final long version;
+    final int qMin, rMin;
+    final int stride, rows;
+    private final int[] neighborOffsets;
+    private final int chunkCount;
+    // HexType ordinal of each cell, or NO_HEX, by page and chunk
+    private final byte[][][] cellPages;
+    /*
+     * Bit d of a hex's mask is set when its neighbor in direction d exists
+     * and is not a wall
+     */
+    private final byte[][][] maskPages;
+    // The price of entering each type of cell, shared by every cell
+    final HexCostTable costs;
+
+    private HexGridState(long version, int qMin, int rMin, int stride, int rows,
+                         int[] neighborOffsets, byte[][] cellChunks,
+                         byte[][] maskChunks, HexCostTable costs) {
+        this(version, qMin, rMin, stride, rows, neighborOffsets, cellChunks.length,
+            paged(cellChunks), paged(maskChunks), costs);
+    }
+
+    private HexGridState(long version, int qMin, int rMin, int stride, int rows,
+                         int[] neighborOffsets, int chunkCount, byte[][][] cellPages,
+                         byte[][][] maskPages, HexCostTable costs) {
+        this.version = version;
+        this.qMin = qMin;
+        this.rMin = rMin;
+        this.stride = stride;
+        this.rows = rows;
+        this.neighborOffsets = neighborOffsets;
+        this.chunkCount = chunkCount;
+        this.cellPages = cellPages;
+        this.maskPages = maskPages;
+        this.costs = costs;
+    }
+
+    /**
+     * Splits a list of chunks into pages, of which only the last can be short
+     */
+    private static byte[][][] paged(byte[][] chunks) {
+        byte[][][] pages = new byte[(chunks.length + PAGE_MASK) >>> PAGE_SHIFT][][];
+        for (int p = 0; p < pages.length; p++) {
+            int from = p << PAGE_SHIFT;
+            pages[p] = Arrays.copyOfRange(chunks, from, Math.min(from + PAGE_SIZE, chunks.length));
+        }
+        return pages;
+    }
+
+    /**
+     * Builds a version from a flat cell array
+     *
+     * @param cells stride * rows HexType ordinals or NO_HEX, with a border of
+     *              NO_HEX all around
+     */
+    static HexGridState of(long version, int qMin, int rMin, int stride, int rows,
+                           byte[] cells, HexCostTable costs) {
+        return of(version, qMin, rMin, stride, rows, costs,
+            (from, into, offset, length) -> System.arraycopy(cells, from, into, offset, length));
+    }
+
+    /**
+     * Builds a version chunk by chunk, so no flat copy of the whole box is
+     * ever held in memory
+     *
+     * @param source the cells of the stride * rows box, with a border of
+     *               NO_HEX all around
+     */
+    static HexGridState of(long version, int qMin, int rMin, int stride, int rows,
+                           HexCostTable costs, CellSource source) {
+        int[] offsets = new int[6];
+        int[] rowSteps = new int[6];
+        int[] columnSteps = new int[6];
+        for (int i = 0; i < 6; ++i) {
+            Hex direction = Hex.DIRECTIONS[i];
+            offsets[i] = direction.r() * stride + direction.q();
+            rowSteps[i] = direction.r() + 1;
+            columnSteps[i] = direction.q() + 1;
+        }
+        int cellCount = stride * rows;
+        int chunkCount = (cellCount + CHUNK_MASK) >>> CHUNK_SHIFT;
+        byte[][] cellChunks = new byte[chunkCount][];
+        byte[][] maskChunks = new byte[chunkCount][];
+        /*
+         * Every neighbor of a run of cells lies in the same run shifted by up
+         * to one cell, in the row above, the row itself or the row below, so
+         * three padded runs are read per chunk
+         */
+        int window = Math.min(CHUNK_SIZE, cellCount) + 2;
+        byte[][] runs = { new byte[window], new byte[window], new byte[window] };
+        byte[] masks = new byte[window];
+        for (int c = 0; c < chunkCount; c++) {
+            int from = c << CHUNK_SHIFT;
+            int length = Math.min(CHUNK_SIZE, cellCount - from);
+            for (int row = -1; row <= 1; row++) {
+                readRun(source, cellCount, from + row * stride - 1, runs[row + 1], length + 2);
+            }
+            byte[] cells = runs[1];
+            byte uniform = cells[0];
+            if (isUniform(cells, length + 2) && (uniform == NO_HEX ||
+                isPassable(uniform) && isUniform(runs[0], length + 2) &&
+                    isUniform(runs[2], length + 2) &&
+                    runs[0][0] == uniform && runs[2][0] == uniform)) {
+                // Nothing to see, or open terrain surrounded by more of it
+                cellChunks[c] = uniformChunk(uniform);
+                maskChunks[c] = uniformChunk((byte) (uniform == NO_HEX ? 0 : ALL_DIRECTIONS));
+                continue;
+            }
+            // One pass per direction keeps the inner loops simple
+            Arrays.fill(masks, 0, length, (byte) 0);
+            for (int d = 0; d < 6; ++d) {
+                byte[] run = runs[rowSteps[d]];
+                int column = columnSteps[d];
+                byte bit = (byte) (1 << d);
+                for (int i = 0; i < length; i++) {
+                    if (isPassable(run[i + column])) {
+                        masks[i] |= bit;
+                    }
+                }
+            }
+            for (int i = 0; i < length; i++) {
+                if (cells[i + 1] == NO_HEX) {
+                    masks[i] = 0;
+                }
+            }
+            cellChunks[c] = compact(cells, 1, length);
+            maskChunks[c] = compact(masks, 0, length);
+        }
+        return new HexGridState(version, qMin, rMin, stride, rows, offsets,
+            cellChunks, maskChunks, costs);
+    }
+
+    /**
+     * Reads a run of cells, of which the ones outside the box are NO_HEX
+     */
+    private static void readRun(CellSource source, int cellCount, int from, byte[] run,
+                                int length) {
+        int start = Math.max(from, 0);
+        int end = Math.min(from + length, cellCount);
+        if (start >= end) {
+            Arrays.fill(run, 0, length, NO_HEX);
+            return;
+        }
+        Arrays.fill(run, 0, start - from, NO_HEX);
+        source.read(start, run, start - from, end - start);
+        Arrays.fill(run, end - from, length, NO_HEX);
+    }
+
+    private static boolean isUniform(byte[] bytes, int length) {
+        byte value = bytes[0];
+        for (int i = 1; i < length; i++) {
+            if (bytes[i] != value) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the shared chunk if the bytes are uniform, else a copy of them
+     */
+    private static byte[] compact(byte[] bytes, int from, int length) {
+        byte value = bytes[from];
+        for (int i = from + 1; i < from + length; i++) {
+            if (bytes[i] != value) {
+                return Arrays.copyOfRange(bytes, from, from + length);
+            }
+        }
+        return uniformChunk(value);
+    }
+
+    private static byte[] uniformChunk(byte value) {
+        byte[] chunk = UNIFORM_CHUNKS.get(value & 0xFF);
+        if (chunk == null) {
+            chunk = new byte[CHUNK_SIZE];
+            Arrays.fill(chunk, value);
+            if (!UNIFORM_CHUNKS.compareAndSet(value & 0xFF, null, chunk)) {
+                chunk = UNIFORM_CHUNKS.get(value & 0xFF);
+            }
+        }
+        return chunk;
+    }
+
+    private static boolean isShared(byte[] chunk) {
+        return chunk.length > 0 && UNIFORM_CHUNKS.get(chunk[0] & 0xFF) == chunk;
+    }
+
+    static boolean isPassable(byte cell) {
+        return cell != NO_HEX && cell != HexType.WALL.ordinal();
+    }
+
+    int getCellCount() {
+        return stride * rows;
+    }
+
+    /**
+     * @return the number of chunks of cell bytes, shared or not
+     */
+    int getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * @return the number of chunks of cells and of masks that this version
+     * has its own storage for, rather than pointing to a shared uniform chunk
+     */
+    int getAllocatedChunkCount() {
+        int allocated = 0;
+        for (int c = 0; c < chunkCount; c++) {
+            if (!isShared(cellPages[c >>> PAGE_SHIFT][c & PAGE_MASK])) {
+                allocated++;
+            }
+            if (!isShared(maskPages[c >>> PAGE_SHIFT][c & PAGE_MASK])) {
+                allocated++;
+            }
+        }
+        return allocated;
+    }
+
+    byte cell(int index) {
+        int chunk = index >>> CHUNK_SHIFT;
+        return cellPages[chunk >>> PAGE_SHIFT][chunk & PAGE_MASK][index & CHUNK_MASK];
+    }
+
+    /**
+     * Copies a run of consecutive cells, chunk by chunk
+     */
+    void read(int from, byte[] into, int offset, int length) {
+        while (length > 0) {
+            int local = from & CHUNK_MASK;
+            int run = Math.min(length, CHUNK_SIZE - local);
+            int chunk = from >>> CHUNK_SHIFT;
+            System.arraycopy(cellPages[chunk >>> PAGE_SHIFT][chunk & PAGE_MASK], local,
+                into, offset, run);
+            from += run;
+            offset += run;
+            length -= run;
+        }
+    }
+
+    int mask(int index) {
+        int chunk = index >>> CHUNK_SHIFT;
+        return maskPages[chunk >>> PAGE_SHIFT][chunk & PAGE_MASK][index & CHUNK_MASK];
+    }
+
+    /**
+     * @param to the index of the hex being entered
+     * @param direction the direction of the step onto it
+     */
+    double cost(int to, int direction) {
+        return costs.cost(cell(to), direction);
+    }
+
+    int neighborOffset(int direction) {
+        return neighborOffsets[direction];
+    }
+
+    int indexOf(int q, int r) {
+        int col = q - qMin;
+        int row = r - rMin;
+        if (col < 0 || col >= stride || row < 0 || row >= rows) {
+            return -1;
+        }
+        int index = row * stride + col;
+        return cell(index) == NO_HEX ? -1 : index;
+    }
+
+    int qAt(int index) {
+        return index % stride + qMin;
+    }
+
+    int rAt(int index) {
+        return index / stride + rMin;
+    }
+
+    /**
+     * @return the next version, with one cell changed
+     */
+    HexGridState withCell(int index, byte type) {
+        byte[][][] cells = cellPages.clone();
+        byte[][][] masks = maskPages.clone();
+        int chunk = index >>> CHUNK_SHIFT;
+        byte[][] cellPage = copyPage(cells, cellPages, chunk);
+        byte[] cellChunk = cellPage[chunk & PAGE_MASK].clone();
+        cellChunk[index & CHUNK_MASK] = type;
+        cellPage[chunk & PAGE_MASK] = cellChunk;
+        boolean passable = isPassable(type);
+        for (int i = 0; i < 6; ++i) {
+            int neighbor = index + neighborOffsets[i];
+            if (cell(neighbor) == NO_HEX) {
+                continue;
+            }
+            int neighborChunk = neighbor >>> CHUNK_SHIFT;
+            int slot = neighborChunk & PAGE_MASK;
+            byte[][] maskPage = copyPage(masks, maskPages, neighborChunk);
+            byte[] masksOfChunk = maskPage[slot];
+            if (masksOfChunk == maskPages[neighborChunk >>> PAGE_SHIFT][slot]) {
+                masksOfChunk = masksOfChunk.clone();
+                maskPage[slot] = masksOfChunk;
+            }
+            int bit = 1 << ((i + 3) % 6);
+            int local = neighbor & CHUNK_MASK;
+            masksOfChunk[local] = (byte) (passable ?
+                masksOfChunk[local] | bit : masksOfChunk[local] & ~bit);
+        }
+        return new HexGridState(version + 1, qMin, rMin, stride, rows,
+            neighborOffsets, chunkCount, cells, masks, costs);
+    }
+
+    /**
+     * Gives the next version its own copy of the page holding a chunk, the
+     * first time one of its chunks changes
+     *
+     * @param pages the pages of the next version
+     * @param shared the pages of this version
+     * @return the page of the next version holding the chunk
+     */
+    private static byte[][] copyPage(byte[][][] pages, byte[][][] shared, int chunk) {
+        int page = chunk >>> PAGE_SHIFT;
+        if (pages[page] == shared[page]) {
+            pages[page] = shared[page].clone();
+        }
+        return pages[page];
+    }
+
+    /**
+     * @return a version with the same cells priced by another table
+     */
+    HexGridState withCosts(long version, HexCostTable costs) {
+        return new HexGridState(version, qMin, rMin, stride, rows,
+            neighborOffsets, chunkCount, cellPages, maskPages, costs);
+    }
+}
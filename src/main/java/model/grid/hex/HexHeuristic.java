@@ -0,0 +1,44 @@
+package model.grid.hex;
+
+/**
+ * Estimates the cost of the cheapest path between two cells of a grid, for
+ * the informed search methods of {@link HexPathfinder}.
+ *
+ * An estimate must never exceed the true cost, and must be consistent: it may
+ * drop by at most the movement cost of a single step, otherwise A* can return
+ * suboptimal paths.
+ */
+public interface HexHeuristic {
+
+    /**
+     * The hex distance times the cheapest step of the grid's cost model,
+     * which no path can beat
+     */
+    HexHeuristic HEX_DISTANCE = new HexHeuristic() {
+        @Override
+        public double estimate(HexGrid grid, int from, int to) {
+            return grid.getBaseMovementCost() * grid.getStraightDistance(from, to);
+        }
+
+        @Override
+        public boolean isIntegral(HexGrid grid) {
+            return true;
+        }
+    };
+
+    /**
+     * @param grid the grid being searched
+     * @param from the index of the cell to estimate from
+     * @param to the index of the goal cell
+     * @return a lower bound on the cost of moving from one cell to the other
+     */
+    double estimate(HexGrid grid, int from, int to);
+
+    /**
+     * @return whether every estimate is a whole number when the movement
+     * costs of the grid are, so searches may order cells with integer buckets
+     */
+    default boolean isIntegral(HexGrid grid) {
+        return false;
+    }
+}
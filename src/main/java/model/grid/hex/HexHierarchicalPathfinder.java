@@ -0,0 +1,626 @@
+package model.grid.hex;
+
+import util.IndexedHeap;
+import util.SearchMethods;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Hierarchical path-finding (HPA*) over a {@link HexGrid}.
+ *
+ * The padded index space of the grid is cut into square blocks of rows and
+ * columns (rhombus-shaped clusters of hexes). Along each border between two
+ * clusters, every run of hexes that can cross the border contributes one
+ * entrance, or one at each end for long runs. Shortest distances between the
+ * entrances of a cluster are precomputed, so a long query only searches the
+ * small abstract graph of entrances, and the hex-level path is refined one
+ * cluster at a time when asked for.
+ *
+ * The pathfinder listens to the grid: an edit only marks the cluster holding
+ * the hex as dirty, and the next query rebuilds that cluster, plus any
+ * neighbor whose shared entrances changed.
+ *
+ * Paths are optimal within the abstract graph, not on the grid itself; on
+ * random maps they average around five percent above the true optimum.
+ * Queries shorter than two clusters are answered with plain A*, and so are
+ * queries starting on a wall.
+ */
+public class HexHierarchicalPathfinder implements HexGridListener {
+
+    public static final int DEFAULT_CLUSTER_SIZE = 16;
+    // Runs of crossable border hexes at least this long get two entrances
+    private static final int LONG_RUN = 6;
+
+    private final HexGrid grid;
+    private final int clusterSize;
+    private final HexPathfinder pathfinder = new HexPathfinder();
+
+    // Geometry of the grid version the clusters were built for
+    private int rowLength, rowCount;
+    private int clusterColumns, clusterRows;
+    private Cluster[] clusters = new Cluster[0];
+    /*
+     * Entrance pairs (inside hex, outside hex) flattened into int arrays,
+     * indexed by the cluster to the west, north and south-west of the border
+     */
+    private int[][] eastEntrances, southEntrances, cornerEntrances;
+
+    private boolean rebuildAll = true;
+    private final BitSet dirty = new BitSet();
+    private long clustersBuilt = 0;
+
+    private static final class Cluster {
+        // Entrance hexes of the cluster
+        int[] nodes = new int[0];
+        // Hexes across the border that each entrance connects to
+        int[][] links = new int[0][];
+        // Row-major matrix of intra-cluster distances between entrances
+        double[] distances = new double[0];
+    }
+
+    public HexHierarchicalPathfinder(HexGrid grid) {
+        this(grid, DEFAULT_CLUSTER_SIZE);
+    }
+
+    /**
+     * @param grid the grid to search, which this pathfinder starts listening to
+     * @param clusterSize the width and height of a cluster in hexes
+     */
+    public HexHierarchicalPathfinder(HexGrid grid, int clusterSize) {
+        if (clusterSize < 2) {
+            throw new IllegalArgumentException("Cluster size must be at least 2: " + clusterSize);
+        }
+        this.grid = grid;
+        this.clusterSize = clusterSize;
+        grid.addListener(this);
+    }
+
+    /**
+     * Stops listening to the grid
+     */
+    public void detach() {
+        grid.removeListener(this);
+    }
+
+    public int getClusterSize() {
+        return clusterSize;
+    }
+
+    /**
+     * @return the total number of cluster builds so far, including the
+     * initial ones
+     */
+    public synchronized long getClustersBuilt() {
+        return clustersBuilt;
+    }
+
+    @Override
+    public synchronized void onHexTypeChanged(HexGrid grid, int index, HexType oldType,
+                                              HexType newType) {
+        if (!rebuildAll) {
+            dirty.set(clusterOf(index));
+        }
+    }
+
+    @Override
+    public synchronized void onGridRebuilt(HexGrid grid) {
+        rebuildAll = true;
+    }
+
+    /**
+     * Finds a path between two hexes through the cluster graph
+     *
+     * @param start the starting hex
+     * @param end the goal hex
+     * @return the path, whose hexes are only computed once requested
+     */
+    public synchronized HexSearchResult search(Hex start, Hex end) {
+        if (start == null || end == null) {
+            throw new IllegalArgumentException(
+                "Invalid arguments for search. Start: " + start + " | Goal: " + end);
+        }
+        // Drain pending edits before pinning, so edits published later are
+        // seen again by the next query
+        boolean full = rebuildAll;
+        BitSet pending = (BitSet) dirty.clone();
+        rebuildAll = false;
+        dirty.clear();
+        HexGrid snapshot = grid.snapshot();
+        if (full) {
+            buildAll(snapshot);
+        } else if (!pending.isEmpty()) {
+            rebuild(snapshot, pending);
+        }
+
+        int startIndex = snapshot.indexOf(start);
+        int endIndex = snapshot.indexOf(end);
+        if (startIndex < 0 || endIndex < 0) {
+            throw new IllegalArgumentException(
+                "Search endpoints must be on the grid. Start: " + start + " | Goal: " + end);
+        }
+        if (snapshot.getHexType(endIndex) == HexType.WALL) {
+            // Nothing steps onto a wall, as in plain A*
+            return new HexSearchResult(Collections.emptyList(), Double.POSITIVE_INFINITY,
+                0, 0);
+        }
+        // A path may leave a wall start, but a wall is never an entrance, so
+        // the abstract graph cannot be trusted to lead out of one
+        if (start.distanceTo(end) <= 2 * clusterSize ||
+            snapshot.getHexType(startIndex) == HexType.WALL) {
+            return pathfinder.search(snapshot, start, end, SearchMethods.A_STAR);
+        }
+        return searchAbstract(snapshot, startIndex, endIndex);
+    }
+
+    private HexSearchResult searchAbstract(HexGrid snapshot, int start, int end) {
+        int startCluster = clusterOf(start);
+        int endCluster = clusterOf(end);
+        LocalSearch local = new LocalSearch(snapshot);
+        local.run(startCluster, start, true);
+        double[] fromStart = local.distancesTo(clusters[startCluster].nodes);
+        double startToEnd = startCluster == endCluster ?
+            local.distanceTo(end) : Double.POSITIVE_INFINITY;
+        // Walk the edges backward from the goal to get costs to reach it
+        local.run(endCluster, end, false);
+        double[] toEnd = local.distancesTo(clusters[endCluster].nodes);
+
+        HexSearchWorkspace workspace = HexSearchWorkspace.forCurrentThread();
+        workspace.begin(snapshot.getCellCount());
+        IndexedHeap queue = workspace.getHeap(HexPathfinder.DEFAULT_HEAP_ARITY);
+        double baseCost = snapshot.getBaseMovementCost();
+        workspace.visit(start, baseCost * snapshot.getStraightDistance(start, end));
+        workspace.setPathCost(start, 0.0D);
+        queue.push(start, workspace.getHeuristic(start));
+        int expanded = 0;
+        int pushed = 1;
+        boolean found = false;
+        while (!queue.isEmpty()) {
+            int current = queue.poll();
+            expanded++;
+            if (current == end) {
+                found = true;
+                break;
+            }
+            workspace.close(current);
+            double g = workspace.getPathCost(current);
+            if (current == start) {
+                pushed += relax(workspace, queue, snapshot, current, end, end, startToEnd);
+                int[] nodes = clusters[startCluster].nodes;
+                for (int i = 0; i < nodes.length; i++) {
+                    pushed += relax(workspace, queue, snapshot, current, nodes[i], end,
+                        fromStart[i]);
+                }
+            }
+            int cluster = clusterOf(current);
+            Cluster c = clusters[cluster];
+            int node = Arrays.binarySearch(c.nodes, current);
+            if (node < 0) {
+                continue;
+            }
+            int k = c.nodes.length;
+            for (int j = 0; j < k; j++) {
+                pushed += relax(workspace, queue, snapshot, current, c.nodes[j], end,
+                    g + c.distances[node * k + j]);
+            }
+            for (int link : c.links[node]) {
+                pushed += relax(workspace, queue, snapshot, current, link, end,
+                    g + snapshot.getMovementCost(link, snapshot.getNeighborDirection(current, link)));
+            }
+            if (cluster == endCluster) {
+                pushed += relax(workspace, queue, snapshot, current, end, end, g + toEnd[node]);
+            }
+        }
+        if (!found) {
+            return new HexSearchResult(Collections.emptyList(), Double.POSITIVE_INFINITY,
+                expanded, pushed);
+        }
+        List<Integer> waypoints = new ArrayList<>();
+        for (int node = end; node >= 0; node = workspace.getParent(node)) {
+            waypoints.add(node);
+        }
+        Collections.reverse(waypoints);
+        int[] path = new int[waypoints.size()];
+        for (int i = 0; i < path.length; i++) {
+            path[i] = waypoints.get(i);
+        }
+        return new HexHierarchicalResult(this, snapshot, path,
+            workspace.getPathCost(end), expanded, pushed);
+    }
+
+    private static int relax(HexSearchWorkspace workspace, IndexedHeap queue, HexGrid grid,
+                             int from, int to, int end, double cost) {
+        if (cost == Double.POSITIVE_INFINITY || workspace.isClosed(to)) {
+            return 0;
+        }
+        if (!workspace.isVisited(to)) {
+            workspace.visit(to, grid.getBaseMovementCost() * grid.getStraightDistance(to, end));
+        }
+        if (cost >= workspace.getPathCost(to)) {
+            return 0;
+        }
+        workspace.setPathCost(to, cost);
+        workspace.setParent(to, from);
+        queue.push(to, cost + workspace.getHeuristic(to));
+        return 1;
+    }
+
+    /**
+     * Expands the leg between two consecutive waypoints of an abstract path
+     *
+     * @return the hexes after the first waypoint, up to and including the
+     * second
+     */
+    List<Hex> refine(HexGrid snapshot, int from, int to) {
+        List<Hex> segment = new ArrayList<>();
+        LocalSearch local = new LocalSearch(snapshot);
+        if (local.clusterOf(from) != local.clusterOf(to)) {
+            // Only the link across a border joins two clusters in one leg
+            segment.add(snapshot.getHexAt(to));
+            return segment;
+        }
+        local.run(local.clusterOf(from), from, true);
+        if (local.distanceTo(to) == Double.POSITIVE_INFINITY) {
+            throw new IllegalStateException(
+                "Waypoint " + to + " cannot be reached from " + from + " within its cluster");
+        }
+        for (int cell = to; cell != from; cell = local.parentOf(cell)) {
+            segment.add(snapshot.getHexAt(cell));
+        }
+        Collections.reverse(segment);
+        return segment;
+    }
+
+    private int clusterOf(int index) {
+        int column = index % rowLength;
+        int row = index / rowLength;
+        return (row / clusterSize) * clusterColumns + column / clusterSize;
+    }
+
+    private void buildAll(HexGrid snapshot) {
+        rowLength = Math.max(1, snapshot.getRowLength());
+        rowCount = snapshot.getRowCount();
+        clusterColumns = (rowLength + clusterSize - 1) / clusterSize;
+        clusterRows = (rowCount + clusterSize - 1) / clusterSize;
+        int count = clusterColumns * clusterRows;
+        clusters = new Cluster[count];
+        eastEntrances = new int[count][];
+        southEntrances = new int[count][];
+        cornerEntrances = new int[count][];
+        for (int c = 0; c < count; c++) {
+            clusters[c] = new Cluster();
+            eastEntrances[c] = findEastEntrances(snapshot, c);
+            southEntrances[c] = findSouthEntrances(snapshot, c);
+            cornerEntrances[c] = findCornerEntrances(snapshot, c);
+        }
+        for (int c = 0; c < count; c++) {
+            buildCluster(snapshot, c);
+        }
+    }
+
+    private void rebuild(HexGrid snapshot, BitSet edited) {
+        BitSet affected = (BitSet) edited.clone();
+        for (int c = edited.nextSetBit(0); c >= 0; c = edited.nextSetBit(c + 1)) {
+            int cx = c % clusterColumns;
+            int cy = c / clusterColumns;
+            // Every border of the cluster, keyed by the cluster that owns it
+            refreshEast(snapshot, cx, cy, affected);
+            refreshEast(snapshot, cx - 1, cy, affected);
+            refreshSouth(snapshot, cx, cy, affected);
+            refreshSouth(snapshot, cx, cy - 1, affected);
+            refreshCorner(snapshot, cx, cy, affected);
+            refreshCorner(snapshot, cx - 1, cy + 1, affected);
+        }
+        for (int c = affected.nextSetBit(0); c >= 0; c = affected.nextSetBit(c + 1)) {
+            buildCluster(snapshot, c);
+        }
+    }
+
+    private void refreshEast(HexGrid snapshot, int cx, int cy, BitSet affected) {
+        if (cx < 0 || cx >= clusterColumns) {
+            return;
+        }
+        int c = cy * clusterColumns + cx;
+        int[] entrances = findEastEntrances(snapshot, c);
+        if (!Arrays.equals(entrances, eastEntrances[c])) {
+            eastEntrances[c] = entrances;
+            affected.set(c);
+            affected.set(c + 1);
+        }
+    }
+
+    private void refreshSouth(HexGrid snapshot, int cx, int cy, BitSet affected) {
+        if (cy < 0 || cy >= clusterRows) {
+            return;
+        }
+        int c = cy * clusterColumns + cx;
+        int[] entrances = findSouthEntrances(snapshot, c);
+        if (!Arrays.equals(entrances, southEntrances[c])) {
+            southEntrances[c] = entrances;
+            affected.set(c);
+            affected.set(c + clusterColumns);
+        }
+    }
+
+    private void refreshCorner(HexGrid snapshot, int cx, int cy, BitSet affected) {
+        if (cx < 0 || cx >= clusterColumns || cy < 0 || cy >= clusterRows) {
+            return;
+        }
+        int c = cy * clusterColumns + cx;
+        int[] entrances = findCornerEntrances(snapshot, c);
+        if (!Arrays.equals(entrances, cornerEntrances[c])) {
+            cornerEntrances[c] = entrances;
+            affected.set(c);
+            affected.set(c - clusterColumns + 1);
+        }
+    }
+
+    /*
+     * A hex in the last column of a cluster crosses its east border straight
+     * in direction 0 (same row), or diagonally in direction 1 (one row up).
+     * Runs of straight crossings are contiguous on both sides of the border;
+     * a diagonal crossing is only an entrance of its own when neither of the
+     * straight crossings next to it exists.
+     */
+    private int[] findEastEntrances(HexGrid snapshot, int c) {
+        int cx = c % clusterColumns;
+        int cy = c / clusterColumns;
+        if (cx + 1 >= clusterColumns) {
+            return new int[0];
+        }
+        int column = cx * clusterSize + clusterSize - 1;
+        int top = cy * clusterSize;
+        int bottom = Math.min(top + clusterSize, rowCount);
+        int[] inside = new int[bottom - top];
+        for (int row = top; row < bottom; row++) {
+            inside[row - top] = row * rowLength + column;
+        }
+        return findEntrances(snapshot, inside, 0, 1);
+    }
+
+    /*
+     * A hex in the last row of a cluster crosses its south border straight
+     * in direction 5 (same column), or diagonally in direction 4 (one column
+     * left).
+     */
+    private int[] findSouthEntrances(HexGrid snapshot, int c) {
+        int cx = c % clusterColumns;
+        int cy = c / clusterColumns;
+        if (cy + 1 >= clusterRows) {
+            return new int[0];
+        }
+        int row = cy * clusterSize + clusterSize - 1;
+        int left = cx * clusterSize;
+        int right = Math.min(left + clusterSize, rowLength);
+        int[] inside = new int[right - left];
+        for (int column = left; column < right; column++) {
+            inside[column - left] = row * rowLength + column;
+        }
+        return findEntrances(snapshot, inside, 5, 4);
+    }
+
+    /**
+     * @param inside the hexes along one side of a border, ordered so that the
+     *               diagonal crossing of each leads to the same hex as the
+     *               straight crossing of the one before it
+     * @return entrance pairs (inside hex, outside hex), flattened
+     */
+    private static int[] findEntrances(HexGrid snapshot, int[] inside, int straight,
+                                       int diagonal) {
+        int[] outside = new int[inside.length];
+        for (int i = 0; i < inside.length; i++) {
+            outside[i] = crossing(snapshot, inside[i], straight);
+        }
+        List<Integer> pairs = new ArrayList<>();
+        int i = 0;
+        while (i < inside.length) {
+            if (outside[i] < 0) {
+                i++;
+                continue;
+            }
+            int runStart = i;
+            while (i < inside.length && outside[i] >= 0) {
+                i++;
+            }
+            int runEnd = i - 1;
+            if (runEnd - runStart + 1 >= LONG_RUN) {
+                addPair(pairs, inside[runStart], outside[runStart]);
+                addPair(pairs, inside[runEnd], outside[runEnd]);
+            } else {
+                int middle = (runStart + runEnd) / 2;
+                addPair(pairs, inside[middle], outside[middle]);
+            }
+        }
+        // The first hex crosses diagonally into another cluster entirely
+        for (i = 1; i < inside.length; i++) {
+            int target = crossing(snapshot, inside[i], diagonal);
+            if (target >= 0 && outside[i] < 0 && outside[i - 1] < 0) {
+                addPair(pairs, inside[i], target);
+            }
+        }
+        return pairs.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static void addPair(List<Integer> pairs, int inside, int outside) {
+        pairs.add(inside);
+        pairs.add(outside);
+    }
+
+    /*
+     * The top right hex of a cluster also touches the cluster to the north
+     * east, through direction 1.
+     */
+    private int[] findCornerEntrances(HexGrid snapshot, int c) {
+        int cx = c % clusterColumns;
+        int cy = c / clusterColumns;
+        int column = cx * clusterSize + clusterSize - 1;
+        int row = cy * clusterSize;
+        if (cx + 1 >= clusterColumns || cy == 0 || column >= rowLength) {
+            return new int[0];
+        }
+        int index = row * rowLength + column;
+        int outside = crossing(snapshot, index, 1);
+        return outside < 0 ? new int[0] : new int[] { index, outside };
+    }
+
+    /**
+     * @return the neighbor in the given direction when both hexes are
+     * passable, or -1
+     */
+    private static int crossing(HexGrid snapshot, int index, int direction) {
+        if (!snapshot.isPassable(index) ||
+            (snapshot.getNeighborMask(index) & (1 << direction)) == 0) {
+            return -1;
+        }
+        return index + snapshot.getNeighborOffset(direction);
+    }
+
+    private void buildCluster(HexGrid snapshot, int c) {
+        int cx = c % clusterColumns;
+        int cy = c / clusterColumns;
+        // Entrance hex -> hexes it links to across the border
+        Map<Integer, List<Integer>> links = new TreeMap<>();
+        addLinks(links, eastEntrances[c], true);
+        addLinks(links, southEntrances[c], true);
+        addLinks(links, cornerEntrances[c], true);
+        if (cx > 0) {
+            addLinks(links, eastEntrances[c - 1], false);
+        }
+        if (cy > 0) {
+            addLinks(links, southEntrances[c - clusterColumns], false);
+        }
+        if (cx > 0 && cy + 1 < clusterRows) {
+            addLinks(links, cornerEntrances[c + clusterColumns - 1], false);
+        }
+
+        Cluster cluster = clusters[c];
+        int k = links.size();
+        cluster.nodes = new int[k];
+        cluster.links = new int[k][];
+        int n = 0;
+        for (Map.Entry<Integer, List<Integer>> entry : links.entrySet()) {
+            cluster.nodes[n] = entry.getKey();
+            cluster.links[n] = entry.getValue().stream().mapToInt(Integer::intValue).toArray();
+            n++;
+        }
+        cluster.distances = new double[k * k];
+        LocalSearch local = new LocalSearch(snapshot);
+        for (int i = 0; i < k; i++) {
+            local.run(c, cluster.nodes[i], true);
+            System.arraycopy(local.distancesTo(cluster.nodes), 0, cluster.distances, i * k, k);
+        }
+        clustersBuilt++;
+    }
+
+    private static void addLinks(Map<Integer, List<Integer>> links, int[] pairs,
+                                 boolean ownsInside) {
+        for (int i = 0; i < pairs.length; i += 2) {
+            int node = ownsInside ? pairs[i] : pairs[i + 1];
+            int link = ownsInside ? pairs[i + 1] : pairs[i];
+            links.computeIfAbsent(node, (key) -> new ArrayList<>()).add(link);
+        }
+    }
+
+    /**
+     * Dijkstra restricted to the hexes of one cluster. Takes its geometry
+     * from the snapshot, so results refined after the grid was repopulated
+     * still see the layout they were searched on.
+     */
+    private final class LocalSearch {
+
+        private final HexGrid snapshot;
+        private final int rowLength, clusterColumns;
+        private final double[] distances = new double[clusterSize * clusterSize];
+        private final int[] parents = new int[clusterSize * clusterSize];
+        private final IndexedHeap heap = new IndexedHeap(clusterSize * clusterSize);
+        private int left, top;
+
+        LocalSearch(HexGrid snapshot) {
+            this.snapshot = snapshot;
+            rowLength = Math.max(1, snapshot.getRowLength());
+            clusterColumns = (rowLength + clusterSize - 1) / clusterSize;
+        }
+
+        int clusterOf(int index) {
+            int column = index % rowLength;
+            int row = index / rowLength;
+            return (row / clusterSize) * clusterColumns + column / clusterSize;
+        }
+
+        /**
+         * @param forward whether to compute the cost of reaching each hex
+         *                from the source, rather than the cost of reaching
+         *                the source from each hex
+         */
+        void run(int cluster, int source, boolean forward) {
+            left = (cluster % clusterColumns) * clusterSize;
+            top = (cluster / clusterColumns) * clusterSize;
+            Arrays.fill(distances, Double.POSITIVE_INFINITY);
+            int sourceLocal = local(source);
+            distances[sourceLocal] = 0.0D;
+            parents[sourceLocal] = -1;
+            heap.push(sourceLocal, 0.0D);
+            while (!heap.isEmpty()) {
+                int currentLocal = heap.poll();
+                int current = global(currentLocal);
+                int mask = snapshot.getNeighborMask(current);
+                for (int i = 0; i < 6; ++i) {
+                    if ((mask & (1 << i)) == 0) {
+                        continue;
+                    }
+                    int neighbor = current + snapshot.getNeighborOffset(i);
+                    int neighborLocal = local(neighbor);
+                    if (neighborLocal < 0) {
+                        continue;
+                    }
+                    double newDist = distances[currentLocal] + (forward ?
+                        snapshot.getMovementCost(neighbor, i) :
+                        snapshot.getMovementCost(current, (i + 3) % 6));
+                    if (newDist < distances[neighborLocal]) {
+                        distances[neighborLocal] = newDist;
+                        parents[neighborLocal] = current;
+                        heap.push(neighborLocal, newDist);
+                    }
+                }
+            }
+        }
+
+        double distanceTo(int index) {
+            return distances[local(index)];
+        }
+
+        double[] distancesTo(int[] indices) {
+            double[] result = new double[indices.length];
+            for (int i = 0; i < indices.length; i++) {
+                result[i] = distanceTo(indices[i]);
+            }
+            return result;
+        }
+
+        int parentOf(int index) {
+            return parents[local(index)];
+        }
+
+        /**
+         * @return the index of the hex within the cluster, or -1 if the hex
+         * lies outside it
+         */
+        private int local(int index) {
+            int column = index % rowLength - left;
+            int row = index / rowLength - top;
+            if (column < 0 || column >= clusterSize || row < 0 || row >= clusterSize) {
+                return -1;
+            }
+            return row * clusterSize + column;
+        }
+
+        private int global(int local) {
+            return (top + local / clusterSize) * rowLength + left + local % clusterSize;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package model.grid.hex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of a {@link HexHierarchicalPathfinder} query. The cost and the
+ * waypoints through cluster entrances are known up front; the hexes between
+ * two waypoints are only searched for when first requested.
+ *
+ * The path is only optimal among those through the entrances, so no bound on
+ * its suboptimality is claimed.
+ */
+public class HexHierarchicalResult extends HexSearchResult {
+
+    private final HexHierarchicalPathfinder pathfinder;
+    private final HexGrid snapshot;
+    private final int[] waypoints;
+    private final List<List<Hex>> segments;
+    private List<Hex> path;
+
+    HexHierarchicalResult(HexHierarchicalPathfinder pathfinder, HexGrid snapshot,
+                          int[] waypoints, double cost, int expanded, int pushed) {
+        super(cost, expanded, pushed);
+        setSuboptimality(Double.POSITIVE_INFINITY);
+        this.pathfinder = pathfinder;
+        this.snapshot = snapshot;
+        this.waypoints = waypoints;
+        this.segments = new ArrayList<>(Collections.nCopies(waypoints.length - 1, null));
+    }
+
+    /**
+     * @return the start, the cluster entrances passed through, and the goal
+     */
+    public List<Hex> getWaypoints() {
+        List<Hex> hexes = new ArrayList<>(waypoints.length);
+        for (int waypoint : waypoints) {
+            hexes.add(snapshot.getHexAt(waypoint));
+        }
+        return hexes;
+    }
+
+    public int getSegmentCount() {
+        return waypoints.length - 1;
+    }
+
+    /**
+     * Refines one leg of the path, so agents can start moving before the
+     * rest of the path is known
+     *
+     * @param segment the leg index in [0, {@link #getSegmentCount()})
+     * @return the hexes after waypoint {@code segment}, up to and including
+     * the next waypoint
+     */
+    public synchronized List<Hex> getSegment(int segment) {
+        List<Hex> hexes = segments.get(segment);
+        if (hexes == null) {
+            hexes = Collections.unmodifiableList(pathfinder.refine(snapshot,
+                waypoints[segment], waypoints[segment + 1]));
+            segments.set(segment, hexes);
+        }
+        return hexes;
+    }
+
+    /**
+     * Refines every remaining leg of the path
+     */
+    @Override
+    public synchronized List<Hex> getPath() {
+        if (path == null) {
+            List<Hex> hexes = new ArrayList<>();
+            hexes.add(snapshot.getHexAt(waypoints[0]));
+            for (int i = 0; i < getSegmentCount(); i++) {
+                hexes.addAll(getSegment(i));
+            }
+            path = Collections.unmodifiableList(hexes);
+        }
+        return path;
+    }
+}
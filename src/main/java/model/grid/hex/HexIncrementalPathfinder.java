@@ -0,0 +1,321 @@
+package model.grid.hex;
+
+import util.IndexedHeap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps a path from a moving agent to a fixed goal up to date as the grid
+ * is edited (D* Lite).
+ *
+ * Path costs are searched backward from the goal, so g(v) is the cost of the
+ * cheapest known path from v to the goal, and rhs(v) is that cost looked up
+ * one step ahead through the neighbors of v. A hex whose two values disagree
+ * is on the open set, keyed by the smaller value plus the hex distance to
+ * the agent, priced at the cheapest step. Editing a hex only changes the
+ * cost of stepping onto it, so only its neighbors are re-evaluated, and the
+ * repair spreads no further than the costs it actually changes. Moving the
+ * agent does not invalidate anything; the keys already queued are kept
+ * valid by the km offset.
+ *
+ * The pathfinder listens to the grid: edits are queued and applied by the
+ * next call to {@link #plan()}. Rebuilding the grid throws away all state.
+ */
+public class HexIncrementalPathfinder implements HexGridListener {
+
+    /**
+     * The dearest a path on a planned grid may cost, so that both parts of
+     * a key still fit exactly in one double
+     */
+    public static final long MAX_PATH_COST = 1L << 25;
+
+    private final HexGrid grid;
+    private final Hex goalHex;
+    private Hex startHex;
+
+    // The version being planned on, and its indices of the endpoints
+    private HexGrid snapshot;
+    private int start, goal;
+    private int lastStart;
+    private double km;
+    // Keys (k1, k2) are compared in order, packed into one double as k1 * scale + k2
+    private double keyScale;
+    private double[] g = new double[0];
+    private double[] rhs = new double[0];
+    private IndexedHeap open;
+    private int pushed;
+
+    private boolean rebuild = true;
+    private int[] pending = new int[16];
+    private int pendingCount = 0;
+    private int[] edits = new int[16];
+
+    /**
+     * @param grid the grid to plan on, which this pathfinder starts listening to
+     * @param start the current position of the agent
+     * @param goal the hex to reach
+     * @throws IllegalArgumentException if the grid's costs cannot be
+     * planned on, see {@link #supports(HexGrid)}
+     */
+    public HexIncrementalPathfinder(HexGrid grid, Hex start, Hex goal) {
+        if (start == null || goal == null) {
+            throw new IllegalArgumentException(
+                "Invalid arguments for search. Start: " + start + " | Goal: " + goal);
+        }
+        if (!supports(grid)) {
+            throw new IllegalArgumentException(unsupported(grid));
+        }
+        this.grid = grid;
+        this.startHex = start;
+        this.goalHex = goal;
+        grid.addListener(this);
+    }
+
+    /**
+     * @return whether the current costs of the grid can be planned on: every
+     * movement cost must be a whole number, and no path may cost more than
+     * {@link #MAX_PATH_COST}
+     */
+    public static boolean supports(HexGrid grid) {
+        return grid.hasIntegralCosts() && grid.getMaxPathCost() <= MAX_PATH_COST;
+    }
+
+    private static String unsupported(HexGrid grid) {
+        return "Incremental planning needs whole-number movement costs and paths costing " +
+            "at most " + MAX_PATH_COST + ": " + grid.getCostModel();
+    }
+
+    /**
+     * Stops listening to the grid
+     */
+    public void detach() {
+        grid.removeListener(this);
+    }
+
+    public Hex getGoal() {
+        return goalHex;
+    }
+
+    public synchronized Hex getStart() {
+        return startHex;
+    }
+
+    /**
+     * Records that the agent has moved; the next plan starts from there
+     *
+     * @param position the new position of the agent
+     */
+    public synchronized void moveTo(Hex position) {
+        if (position == null) {
+            throw new IllegalArgumentException("Invalid agent position: " + position);
+        }
+        startHex = position;
+    }
+
+    @Override
+    public synchronized void onHexTypeChanged(HexGrid grid, int index, HexType oldType,
+                                              HexType newType) {
+        if (rebuild) {
+            return;
+        }
+        if (pendingCount == pending.length) {
+            pending = Arrays.copyOf(pending, pendingCount * 2);
+        }
+        pending[pendingCount++] = index;
+    }
+
+    @Override
+    public synchronized void onGridRebuilt(HexGrid grid) {
+        rebuild = true;
+        pendingCount = 0;
+    }
+
+    /**
+     * Applies the edits made since the last plan and repairs the path
+     *
+     * @return the path from the agent to the goal, with the number of hexes
+     * expanded by this repair alone
+     * @throws IllegalStateException if a cost model installed since makes
+     * the grid unsupported, see {@link #supports(HexGrid)}
+     */
+    public synchronized HexSearchResult plan() {
+        // Drain pending edits before pinning, so edits published later are
+        // seen again by the next plan
+        boolean full = rebuild;
+        int editCount = pendingCount;
+        if (edits.length < editCount) {
+            edits = new int[pending.length];
+        }
+        System.arraycopy(pending, 0, edits, 0, editCount);
+        rebuild = false;
+        pendingCount = 0;
+        snapshot = grid.snapshot();
+        pushed = 0;
+
+        int newStart = snapshot.indexOf(startHex);
+        if (newStart < 0 || (!full && snapshot.indexOf(goalHex) != goal)) {
+            full = true;
+        }
+        if (full) {
+            initialize();
+        } else {
+            start = newStart;
+            km += snapshot.getBaseMovementCost() * snapshot.getStraightDistance(lastStart, start);
+            lastStart = start;
+            for (int i = 0; i < editCount; i++) {
+                // Only the cost of stepping onto the edited hex changed
+                int edited = edits[i];
+                for (int d = 0; d < 6; ++d) {
+                    int neighbor = edited + snapshot.getNeighborOffset(d);
+                    if (snapshot.hasHexAt(neighbor)) {
+                        updateVertex(neighbor);
+                    }
+                }
+            }
+        }
+        int expanded = computeShortestPath();
+        return extractPath(expanded);
+    }
+
+    private void initialize() {
+        start = snapshot.indexOf(startHex);
+        goal = snapshot.indexOf(goalHex);
+        if (start < 0 || goal < 0) {
+            // Try again from scratch once the endpoints are back on the grid
+            rebuild = true;
+            throw new IllegalArgumentException(
+                "Search endpoints must be on the grid. Start: " + startHex + " | Goal: " + goalHex);
+        }
+        if (!supports(snapshot)) {
+            rebuild = true;
+            throw new IllegalStateException(unsupported(snapshot));
+        }
+        lastStart = start;
+        km = 0.0D;
+        int cellCount = snapshot.getCellCount();
+        // Larger than any path cost, so k2 never carries into k1
+        keyScale = Long.highestOneBit((long) snapshot.getMaxPathCost()) * 2.0D;
+        if (g.length < cellCount) {
+            g = new double[cellCount];
+            rhs = new double[cellCount];
+        }
+        Arrays.fill(g, Double.POSITIVE_INFINITY);
+        Arrays.fill(rhs, Double.POSITIVE_INFINITY);
+        if (open == null || open.capacity() < cellCount) {
+            open = new IndexedHeap(Math.max(1, cellCount));
+        } else {
+            open.clear();
+        }
+        rhs[goal] = 0.0D;
+        open.push(goal, key(goal));
+    }
+
+    /**
+     * @return the key of a hex: the smaller of its two costs plus the least
+     * it can cost to reach from the agent, ties broken by the smaller cost
+     * alone. Breaking ties this way is what lets the final path be read off
+     * the g values.
+     */
+    private double key(int index) {
+        double cost = Math.min(g[index], rhs[index]);
+        double h = snapshot.getBaseMovementCost() * snapshot.getStraightDistance(start, index);
+        return (cost + h + km) * keyScale + cost;
+    }
+
+    /**
+     * Recomputes the one-step lookahead of a hex and queues it if it is no
+     * longer consistent
+     */
+    private void updateVertex(int index) {
+        if (index != goal) {
+            double best = Double.POSITIVE_INFINITY;
+            int mask = snapshot.getNeighborMask(index);
+            for (int d = 0; d < 6; ++d) {
+                if ((mask & (1 << d)) != 0) {
+                    int next = index + snapshot.getNeighborOffset(d);
+                    best = Math.min(best, snapshot.getMovementCost(next, d) + g[next]);
+                }
+            }
+            rhs[index] = best;
+        }
+        if (g[index] != rhs[index]) {
+            open.push(index, key(index));
+            pushed++;
+        } else {
+            open.remove(index);
+        }
+    }
+
+    /**
+     * @return the number of hexes expanded
+     */
+    private int computeShortestPath() {
+        int expanded = 0;
+        while (!open.isEmpty() &&
+            (open.peekPriority() < key(start) || rhs[start] != g[start])) {
+            double oldKey = open.peekPriority();
+            int current = open.poll();
+            double newKey = key(current);
+            if (oldKey < newKey) {
+                // Queued before the agent moved
+                open.push(current, newKey);
+                continue;
+            }
+            expanded++;
+            boolean passable = snapshot.isPassable(current);
+            if (g[current] > rhs[current]) {
+                g[current] = rhs[current];
+            } else {
+                g[current] = Double.POSITIVE_INFINITY;
+                updateVertex(current);
+            }
+            if (!passable) {
+                // Nothing can step onto a wall
+                continue;
+            }
+            for (int d = 0; d < 6; ++d) {
+                int previous = current + snapshot.getNeighborOffset(d);
+                if (snapshot.hasHexAt(previous)) {
+                    updateVertex(previous);
+                }
+            }
+        }
+        return expanded;
+    }
+
+    private HexSearchResult extractPath(int expanded) {
+        List<Hex> path = new ArrayList<>();
+        if (rhs[start] == Double.POSITIVE_INFINITY) {
+            return new HexSearchResult(path, Double.POSITIVE_INFINITY, expanded, pushed);
+        }
+        double cost = 0.0D;
+        int current = start;
+        path.add(snapshot.getHexAt(current));
+        while (current != goal) {
+            int bestNext = -1;
+            int bestDirection = -1;
+            double best = Double.POSITIVE_INFINITY;
+            int mask = snapshot.getNeighborMask(current);
+            for (int d = 0; d < 6; ++d) {
+                if ((mask & (1 << d)) != 0) {
+                    int next = current + snapshot.getNeighborOffset(d);
+                    double through = snapshot.getMovementCost(next, d) + g[next];
+                    if (through < best) {
+                        best = through;
+                        bestNext = next;
+                        bestDirection = d;
+                    }
+                }
+            }
+            if (bestNext < 0 || path.size() > snapshot.getCellCount()) {
+                throw new IllegalStateException("Inconsistent plan at " + snapshot.getHexAt(current));
+            }
+            cost += snapshot.getMovementCost(bestNext, bestDirection);
+            current = bestNext;
+            path.add(snapshot.getHexAt(current));
+        }
+        return new HexSearchResult(path, cost, expanded, pushed);
+    }
+}
@@ -0,0 +1,191 @@
+package model.grid.hex;
+
+import util.IntPriorityQueue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Jump Point Search adapted to hex grids.
+ *
+ * Every direction d is the sum of its two neighboring directions, so an
+ * optimal path over uniform terrain only ever mixes two adjacent directions,
+ * one odd and one even. Among the many equivalent orderings of such a path,
+ * only the one taking all odd ("diagonal") steps before the even
+ * ("straight") steps is searched, which lets straight runs and diagonal runs
+ * be jumped over without pushing their cells onto the open set.
+ *
+ * The pruning rules only hold where every cell costs the same, so a jump
+ * stops at any hex that is not interior to a base-cost region (a hex that
+ * costs more from some direction, or borders one that does), and such hexes
+ * are expanded in all six directions like in plain A*.
+ */
+final class HexJumpPointSearch {
+
+    private final HexGrid grid;
+    private final int goal;
+    private final double baseCost;
+    private final HexHeuristic heuristic;
+
+    /**
+     * @param heuristic the hex distance, or a view of it that counts calls
+     */
+    HexJumpPointSearch(HexGrid grid, int goal, HexHeuristic heuristic) {
+        this.grid = grid;
+        this.goal = goal;
+        this.heuristic = heuristic;
+        this.baseCost = grid.getBaseMovementCost();
+    }
+
+    HexSearchResult search(int start, HexSearchWorkspace workspace,
+                           IntPriorityQueue queue, HexSearchListener listener) {
+        workspace.visit(start, heuristic.estimate(grid, start, goal));
+        workspace.setPathCost(start, 0.0D);
+        queue.push(start, workspace.getHeuristic(start));
+        int expanded = 0;
+        int pushed = 1;
+
+        boolean found = false;
+        while (!queue.isEmpty()) {
+            int current = queue.poll();
+            expanded++;
+            if (listener != null) {
+                listener.onExpand(grid, current,
+                    workspace.getPathCost(current) + workspace.getHeuristic(current));
+            }
+            if (current == goal) {
+                found = true;
+                break;
+            }
+            workspace.close(current);
+
+            int directions = successorDirections(current, workspace.getDirection(current));
+            for (int i = 0; i < 6; ++i) {
+                if ((directions & (1 << i)) == 0) {
+                    continue;
+                }
+                int jumpPoint = jump(current, i);
+                if (jumpPoint < 0 || workspace.isClosed(jumpPoint)) {
+                    continue;
+                }
+                if (listener != null) {
+                    listener.onFringe(grid, jumpPoint);
+                }
+                // Every hex skipped over is interior, so costs the base cost
+                double steps = grid.getStraightDistance(current, jumpPoint);
+                double newDist = workspace.getPathCost(current) +
+                    (steps - 1) * baseCost + grid.getMovementCost(jumpPoint, i);
+                if (!workspace.isVisited(jumpPoint)) {
+                    workspace.visit(jumpPoint, heuristic.estimate(grid, jumpPoint, goal));
+                }
+                if (newDist < workspace.getPathCost(jumpPoint)) {
+                    workspace.setPathCost(jumpPoint, newDist);
+                    workspace.setParent(jumpPoint, current);
+                    workspace.setDirection(jumpPoint, i);
+                    queue.push(jumpPoint, newDist + workspace.getHeuristic(jumpPoint));
+                    pushed++;
+                }
+            }
+        }
+
+        List<Hex> path = new ArrayList<>();
+        if (!found) {
+            return new HexSearchResult(path, Double.POSITIVE_INFINITY, expanded, pushed);
+        }
+        // Walk back over the straight runs between jump points
+        for (int node = goal; node != start; node = workspace.getParent(node)) {
+            int parent = workspace.getParent(node);
+            int offset = grid.getNeighborOffset(workspace.getDirection(node));
+            for (int cell = node; cell != parent; cell -= offset) {
+                path.add(grid.getHexAt(cell));
+            }
+        }
+        path.add(grid.getHexAt(start));
+        Collections.reverse(path);
+        return new HexSearchResult(path, workspace.getPathCost(goal), expanded, pushed);
+    }
+
+    /**
+     * @param direction the direction the hex was entered in, or -1
+     * @return a bitmask of the directions worth jumping in from the hex
+     */
+    private int successorDirections(int index, int direction) {
+        if (direction < 0 || !isInterior(index)) {
+            return 0b111111;
+        }
+        if ((direction & 1) == 0) {
+            return (1 << direction) | forcedDirections(index, direction);
+        }
+        return (1 << direction) | (1 << rotate(direction, -1)) | (1 << rotate(direction, 1));
+    }
+
+    /**
+     * Finds the neighbors of a hex entered straight in an even direction that
+     * can only be reached optimally through it: the hex diagonally ahead is
+     * forced when the hex beside the parent that leads there is blocked.
+     */
+    private int forcedDirections(int index, int direction) {
+        int mask = grid.getNeighborMask(index);
+        int forced = 0;
+        for (int side = -1; side <= 1; side += 2) {
+            int diagonal = rotate(direction, side);
+            int behind = rotate(direction, 2 * side);
+            if ((mask & (1 << diagonal)) != 0 && (mask & (1 << behind)) == 0) {
+                forced |= 1 << diagonal;
+            }
+        }
+        return forced;
+    }
+
+    /**
+     * Moves from a hex in one direction until reaching a hex that must be
+     * put on the open set
+     *
+     * @return the jump point, or -1 if the run ends in a wall
+     */
+    private int jump(int from, int direction) {
+        int offset = grid.getNeighborOffset(direction);
+        int index = from;
+        while (true) {
+            if ((grid.getNeighborMask(index) & (1 << direction)) == 0) {
+                return -1;
+            }
+            index += offset;
+            if (index == goal || !isInterior(index)) {
+                return index;
+            }
+            if ((direction & 1) == 0) {
+                if (forcedDirections(index, direction) != 0) {
+                    return index;
+                }
+            } else if (jump(index, rotate(direction, -1)) >= 0 ||
+                jump(index, rotate(direction, 1)) >= 0) {
+                // A straight run from here leads somewhere worth visiting
+                return index;
+            }
+        }
+    }
+
+    /**
+     * @return whether the hex and all its passable neighbors cost the base
+     * cost from every direction
+     */
+    private boolean isInterior(int index) {
+        if (!grid.isBaseMovementCost(index)) {
+            return false;
+        }
+        int mask = grid.getNeighborMask(index);
+        for (int i = 0; i < 6; ++i) {
+            if ((mask & (1 << i)) != 0 &&
+                !grid.isBaseMovementCost(index + grid.getNeighborOffset(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int rotate(int direction, int steps) {
+        return (direction + steps + 6) % 6;
+    }
+}
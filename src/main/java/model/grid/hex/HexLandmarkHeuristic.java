@@ -0,0 +1,263 @@
+package model.grid.hex;
+
+import util.BucketQueue;
+import util.IndexedHeap;
+import util.IntPriorityQueue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ALT heuristic: exact path costs to and from a few landmark hexes, turned
+ * into lower bounds with the triangle inequality. For a landmark L,
+ * d(v, t) >= d(L, t) - d(L, v) and d(v, t) >= d(v, L) - d(t, L); the
+ * estimate is the largest such bound, and never less than the hex distance
+ * scaled by the cheapest step.
+ * Unlike the hex distance, these bounds see walls and dirt, so A* expands
+ * fewer hexes wherever those make the hex distance a loose estimate.
+ *
+ * Landmarks are picked greedily within the largest connected region, each one
+ * as far as possible from the previous ones, which tends to put them around
+ * the edges of the map. Queries elsewhere get the hex distance.
+ *
+ * The tables describe the version of the grid they were built from, priced
+ * by the cost model it had then. On any other version, or a view of the grid
+ * priced by another model, the estimate falls back to the hex distance,
+ * since an edit that makes a hex cheaper could make the stored bounds
+ * overestimate.
+ */
+public class HexLandmarkHeuristic implements HexHeuristic {
+
+    private static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private final HexGridState state;
+    private final HexGrid snapshot;
+    private final int[] landmarks;
+    // fromLandmark[k][v] = d(L_k, v), toLandmark[k][v] = d(v, L_k)
+    private final int[][] fromLandmark;
+    private final int[][] toLandmark;
+    private final long preprocessingNanos;
+
+    /**
+     * Picks the landmarks and computes their distance tables
+     *
+     * @param grid the grid to preprocess; its current version is used
+     * @param landmarkCount the number of landmarks to pick, fewer if the grid
+     *                      has fewer passable hexes
+     * @throws IllegalArgumentException if the grid's costs cannot be
+     * tabulated, see {@link #supports(HexGrid)}
+     */
+    public HexLandmarkHeuristic(HexGrid grid, int landmarkCount) {
+        if (landmarkCount < 1) {
+            throw new IllegalArgumentException("Landmark count must be positive: " + landmarkCount);
+        }
+        long startTime = System.nanoTime();
+        snapshot = grid.snapshot();
+        state = snapshot.getState();
+        if (!supports(snapshot)) {
+            throw new IllegalArgumentException(
+                "Landmark tables need whole-number movement costs and paths costing less " +
+                    "than " + UNREACHABLE + ": " + snapshot.getCostModel());
+        }
+
+        int cellCount = snapshot.getCellCount();
+        // Dear paths would need too many buckets
+        IntPriorityQueue queue = snapshot.getMaxPathCost() <= HexPathfinder.BUCKET_LIMIT ?
+            new BucketQueue(Math.max(1, cellCount)) : new IndexedHeap(Math.max(1, cellCount));
+        int[] seedDistances = new int[cellCount];
+        int seed = largestRegion(seedDistances);
+
+        List<int[]> from = new ArrayList<>();
+        List<int[]> to = new ArrayList<>();
+        List<Integer> picked = new ArrayList<>();
+        if (seed >= 0) {
+            // The first landmark is the hex farthest from an arbitrary one of the region
+            distances(seed, true, seedDistances, queue);
+            int[] nearest = seedDistances;
+            while (picked.size() < landmarkCount) {
+                int landmark = farthest(nearest);
+                if (landmark < 0) {
+                    break;
+                }
+                int[] fromDistances = new int[cellCount];
+                int[] toDistances = new int[cellCount];
+                distances(landmark, true, fromDistances, queue);
+                distances(landmark, false, toDistances, queue);
+                picked.add(landmark);
+                from.add(fromDistances);
+                to.add(toDistances);
+
+                if (nearest == seedDistances) {
+                    nearest = fromDistances.clone();
+                } else {
+                    for (int i = 0; i < cellCount; i++) {
+                        nearest[i] = Math.min(nearest[i], fromDistances[i]);
+                    }
+                }
+            }
+        }
+        landmarks = picked.stream().mapToInt(Integer::intValue).toArray();
+        fromLandmark = from.toArray(new int[0][]);
+        toLandmark = to.toArray(new int[0][]);
+        preprocessingNanos = System.nanoTime() - startTime;
+    }
+
+    /**
+     * Finds the largest set of passable hexes connected to each other, so the
+     * landmarks are not spent on a pocket sealed off by walls
+     *
+     * @param labels scratch space of one int per cell
+     * @return a hex of the largest region, or -1 if no hex is passable
+     */
+    /**
+     * @return whether the current costs of the grid can be tabulated: every
+     * movement cost must be a whole number, and every path must cost less
+     * than the largest int
+     */
+    public static boolean supports(HexGrid grid) {
+        return grid.hasIntegralCosts() && grid.getMaxPathCost() < UNREACHABLE;
+    }
+
+    private int largestRegion(int[] labels) {
+        Arrays.fill(labels, -1);
+        int[] stack = new int[labels.length];
+        int best = -1;
+        int bestSize = 0;
+        for (int i = 0; i < labels.length; i++) {
+            if (labels[i] >= 0 || !snapshot.isPassable(i)) {
+                continue;
+            }
+            int size = 0;
+            int top = 0;
+            stack[top++] = i;
+            labels[i] = i;
+            while (top > 0) {
+                int current = stack[--top];
+                size++;
+                int mask = snapshot.getNeighborMask(current);
+                for (int d = 0; d < 6; ++d) {
+                    int neighbor = current + snapshot.getNeighborOffset(d);
+                    if ((mask & (1 << d)) != 0 && labels[neighbor] < 0) {
+                        labels[neighbor] = i;
+                        stack[top++] = neighbor;
+                    }
+                }
+            }
+            if (size > bestSize) {
+                best = i;
+                bestSize = size;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the reachable passable hex with the largest distance, skipping
+     * hexes that are already landmarks, or -1 if there is none
+     */
+    private int farthest(int[] nearest) {
+        int best = -1;
+        for (int i = 0; i < nearest.length; i++) {
+            if (nearest[i] != UNREACHABLE && nearest[i] > 0 &&
+                (best < 0 || nearest[i] > nearest[best])) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Runs Dijkstra from a landmark, over the edges as they are or reversed
+     *
+     * @param forward whether to compute the cost of reaching each hex from
+     *                the landmark, rather than the cost of reaching the
+     *                landmark from each hex
+     */
+    private void distances(int landmark, boolean forward, int[] distances,
+                           IntPriorityQueue queue) {
+        Arrays.fill(distances, UNREACHABLE);
+        distances[landmark] = 0;
+        queue.push(landmark, 0);
+        while (!queue.isEmpty()) {
+            int current = queue.poll();
+            int mask = snapshot.getNeighborMask(current);
+            for (int i = 0; i < 6; ++i) {
+                if ((mask & (1 << i)) == 0) {
+                    continue;
+                }
+                int neighbor = current + snapshot.getNeighborOffset(i);
+                // Stepping back from a hex costs what it costs to enter it
+                int newDist = distances[current] + (int) (forward ?
+                    snapshot.getMovementCost(neighbor, i) :
+                    snapshot.getMovementCost(current, (i + 3) % 6));
+                if (newDist < distances[neighbor]) {
+                    distances[neighbor] = newDist;
+                    queue.push(neighbor, newDist);
+                }
+            }
+        }
+    }
+
+    @Override
+    public double estimate(HexGrid grid, int from, int to) {
+        double straight = grid.getBaseMovementCost() * grid.getStraightDistance(from, to);
+        if (grid.getState() != state) {
+            return straight;
+        }
+        int best = 0;
+        for (int k = 0; k < landmarks.length; k++) {
+            int[] fromL = fromLandmark[k];
+            int[] toL = toLandmark[k];
+            if (fromL[from] != UNREACHABLE && fromL[to] != UNREACHABLE) {
+                best = Math.max(best, fromL[to] - fromL[from]);
+            }
+            if (toL[from] != UNREACHABLE && toL[to] != UNREACHABLE) {
+                best = Math.max(best, toL[from] - toL[to]);
+            }
+        }
+        return Math.max(straight, best);
+    }
+
+    @Override
+    public boolean isIntegral(HexGrid grid) {
+        return true;
+    }
+
+    /**
+     * @return whether the tables describe the current version of the grid,
+     * rather than estimates falling back to the hex distance
+     */
+    public boolean isCurrent(HexGrid grid) {
+        return grid.getState() == state;
+    }
+
+    public List<Hex> getLandmarks() {
+        List<Hex> hexes = new ArrayList<>(landmarks.length);
+        for (int landmark : landmarks) {
+            hexes.add(snapshot.getHexAt(landmark));
+        }
+        return hexes;
+    }
+
+    /**
+     * @return the wall-clock time spent picking landmarks and filling tables
+     */
+    public long getPreprocessingNanos() {
+        return preprocessingNanos;
+    }
+
+    /**
+     * @return the size of the distance tables in bytes
+     */
+    public long getMemoryBytes() {
+        return 2L * landmarks.length * state.getCellCount() * Integer.BYTES;
+    }
+
+    @Override
+    public String toString() {
+        return "HexLandmarkHeuristic[landmarks = " + landmarks.length +
+            ", preprocessing = " + preprocessingNanos / 1_000_000 + " ms" +
+            ", memory = " + getMemoryBytes() / 1024 + " KiB]";
+    }
+}
@@ -12,17 +12,29 @@ public class HexLayout extends Layout {
     private HexOrientation orientation;
     private Point2D size;
     private Point2D origin;
+    // Offsets of the six corners from the center of any hex
+    private final double[] cornerX = new double[6];
+    private final double[] cornerY = new double[6];
 
     public HexLayout(HexOrientation orientation, Point2D size, Point2D origin) {
         this.orientation = orientation;
         this.size = size;
         this.origin = origin;
+        for (int i = 0; i < 6; i++) {
+            Point2D offset = cornerOffset(i);
+            cornerX[i] = offset.getX();
+            cornerY[i] = offset.getY();
+        }
     }
 
     public Point2D getSize() {
         return size;
     }
 
+    public Point2D getOrigin() {
+        return origin;
+    }
+
     public Point2D toPixel(Hex hex) {
         final HexOrientation M = orientation;
         double x = (M.f0 * hex.q() + M.f1 * hex.r()) * size.getX();
@@ -36,9 +48,22 @@ public class HexLayout extends Layout {
     }
 
     public IntPoint2D getRoundedAxialCoordinate(Point2D coords) {
-        return IntPoint2D.fromDoublePoint(
-            FractionalHex.round(getAxialCoordinate(coords))
-        );
+        long key = getRoundedAxialKey(coords.getX(), coords.getY());
+        return new IntPoint2D(Hex.qOfKey(key), Hex.rOfKey(key));
+    }
+
+    /**
+     * Finds the hex under a pixel without allocating
+     *
+     * @return the packed key of the hex, as made by {@link Hex#key(int, int)}
+     */
+    public long getRoundedAxialKey(double x, double y) {
+        final HexOrientation M = orientation;
+        double px = (x - origin.getX()) / size.getX();
+        double py = (y - origin.getY()) / size.getY();
+        return FractionalHex.roundToKey(
+            M.b0 * px + M.b1 * py,
+            M.b2 * px + M.b3 * py);
     }
 
     public Point2D getAxialCoordinate(Point2D coords) {
@@ -62,12 +87,27 @@ public class HexLayout extends Layout {
         List<Point2D> list = new ArrayList<>();
         Point2D center = toPixel(hex);
         for (int i = 0; i < 6; i++) {
-            Point2D offset = cornerOffset(i);
-            list.add(center.add(offset));
+            list.add(center.add(cornerX[i], cornerY[i]));
         }
         return list;
     }
 
+    /**
+     * Finds the pixel corners of a hex without allocating
+     *
+     * @param x receives the x of the six corners
+     * @param y receives the y of the six corners
+     */
+    public void corners(int q, int r, double[] x, double[] y) {
+        final HexOrientation M = orientation;
+        double centerX = (M.f0 * q + M.f1 * r) * size.getX() + origin.getX();
+        double centerY = (M.f2 * q + M.f3 * r) * size.getY() + origin.getY();
+        for (int i = 0; i < 6; i++) {
+            x[i] = centerX + cornerX[i];
+            y[i] = centerY + cornerY[i];
+        }
+    }
+
     public HexOrientation getOrientation() {
         return orientation;
     }
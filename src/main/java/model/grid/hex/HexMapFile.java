@@ -0,0 +1,367 @@
+package model.grid.hex;
+
+import javafx.geometry.Point2D;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary map file of a {@link HexGrid}, read through a memory mapping.
+ *
+ * The file starts with a fixed 64 byte big-endian header:
+ * <pre>
+ *  0  int     magic, "HEXM"
+ *  4  short   format version
+ *  6  byte    orientation, 0 = pointy, 1 = flat
+ *  7  byte    map shape, 0 = none, otherwise MapShape ordinal + 1
+ *  8  int     map width
+ * 12  int     map height
+ * 16  double  hex size x, y
+ * 32  double  layout origin x, y
+ * 48  int     qMin, rMin of the padded bounding box
+ * 56  int     row length (stride), row count
+ * </pre>
+ * followed by the cells of the padded bounding box in index order, two per
+ * byte, low nibble first. A nibble holds the {@link HexType} ordinal of the
+ * cell, or 0xF where the box has no hex.
+ *
+ * Opening a file only reads the header; the body is mapped and the operating
+ * system pages it in as cells are read. {@link #toGrid(int, int, int, int)}
+ * only touches the rows of the region it loads, so a server can load the part
+ * of a map it needs from a file far larger than its heap.
+ */
+public final class HexMapFile implements Closeable {
+
+    public static final int MAGIC = 0x4845584D;
+    public static final short FORMAT_VERSION = 1;
+    public static final int HEADER_SIZE = 64;
+
+    private static final int NO_HEX_NIBBLE = 0xF;
+    private static final int BLOCK_SIZE = 1 << 16;
+    private static final HexType[] TYPES = HexType.values();
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer body;
+    private final HexOrientation orientation;
+    private final HexGrid.MapShape mapShape;
+    private final int mapWidth, mapHeight;
+    private final Point2D size, origin;
+    private final int qMin, rMin, stride, rows;
+
+    private HexMapFile(Path path) throws IOException {
+        this.path = path;
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Keep reading until the header is complete or the file ends
+            }
+            if (header.hasRemaining() || header.getInt(0) != MAGIC) {
+                throw new IOException("Not a hex map file: " + path);
+            }
+            if (header.getShort(4) != FORMAT_VERSION) {
+                throw new IOException("Unsupported hex map format version " +
+                    header.getShort(4) + ": " + path);
+            }
+            orientation = orientationOf(header.get(6));
+            int shape = header.get(7) & 0xFF;
+            if (shape > HexGrid.MapShape.values().length) {
+                throw new IOException("Unknown map shape " + shape + ": " + path);
+            }
+            mapShape = shape == 0 ? null : HexGrid.MapShape.values()[shape - 1];
+            mapWidth = header.getInt(8);
+            mapHeight = header.getInt(12);
+            size = new Point2D(header.getDouble(16), header.getDouble(24));
+            origin = new Point2D(header.getDouble(32), header.getDouble(40));
+            qMin = header.getInt(48);
+            rMin = header.getInt(52);
+            stride = header.getInt(56);
+            rows = header.getInt(60);
+            long cellCount = (long) stride * rows;
+            if (stride < 0 || rows < 0 || cellCount > Integer.MAX_VALUE) {
+                throw new IOException("Invalid map dimensions " + stride + " x " + rows +
+                    ": " + path);
+            }
+            long bodySize = (cellCount + 1) / 2;
+            if (channel.size() < HEADER_SIZE + bodySize) {
+                throw new IOException("Truncated hex map file: " + path);
+            }
+            body = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, bodySize);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static HexOrientation orientationOf(byte code) throws IOException {
+        switch (code) {
+            case 0:
+                return HexOrientation.POINTY;
+            case 1:
+                return HexOrientation.FLAT;
+            default:
+                throw new IOException("Unknown hex orientation " + code);
+        }
+    }
+
+    /**
+     * Maps a map file for reading. The mapping stays valid until the file
+     * is closed; the file must not be truncated while it is open.
+     */
+    public static HexMapFile open(Path path) throws IOException {
+        return new HexMapFile(path);
+    }
+
+    /**
+     * Reads a whole map file into a new grid
+     */
+    public static HexGrid load(Path path) throws IOException {
+        try (HexMapFile file = open(path)) {
+            return file.toGrid();
+        }
+    }
+
+    /**
+     * Writes the current version of a grid. The file is written next to the
+     * target and moved over it, so open mappings of the old file stay valid.
+     */
+    public static void save(HexGrid grid, Path path) throws IOException {
+        HexGrid snapshot = grid.snapshot();
+        HexGridState state = snapshot.getState();
+        HexLayout layout = snapshot.getLayout();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putShort(FORMAT_VERSION);
+        header.put(orientationCode(layout.getOrientation()));
+        HexGrid.MapShape shape = snapshot.getMapShape();
+        header.put((byte) (shape == null ? 0 : shape.ordinal() + 1));
+        header.putInt(snapshot.getMapWidth());
+        header.putInt(snapshot.getMapHeight());
+        header.putDouble(layout.getSize().getX());
+        header.putDouble(layout.getSize().getY());
+        header.putDouble(layout.getOrigin().getX());
+        header.putDouble(layout.getOrigin().getY());
+        header.putInt(state.qMin);
+        header.putInt(state.rMin);
+        header.putInt(state.stride);
+        header.putInt(state.rows);
+        header.flip();
+
+        Path absolute = path.toAbsolutePath();
+        Path temp = Files.createTempFile(absolute.getParent(),
+            absolute.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeFully(out, header);
+                ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+                int cellCount = state.getCellCount();
+                for (int i = 0; i < cellCount; i += 2) {
+                    int low = nibbleOf(state.cell(i));
+                    int high = i + 1 < cellCount ? nibbleOf(state.cell(i + 1)) : NO_HEX_NIBBLE;
+                    block.put((byte) (low | high << 4));
+                    if (!block.hasRemaining()) {
+                        block.flip();
+                        writeFully(out, block);
+                        block.clear();
+                    }
+                }
+                block.flip();
+                writeFully(out, block);
+                out.force(false);
+            }
+            try {
+                Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static byte orientationCode(HexOrientation orientation) {
+        if (orientation == HexOrientation.POINTY) {
+            return 0;
+        }
+        if (orientation == HexOrientation.FLAT) {
+            return 1;
+        }
+        throw new IllegalArgumentException(
+            "Only pointy and flat grids can be saved, not " + orientation);
+    }
+
+    private static int nibbleOf(byte cell) {
+        return cell == HexGridState.NO_HEX ? NO_HEX_NIBBLE : cell;
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public HexOrientation getOrientation() {
+        return orientation;
+    }
+
+    /**
+     * @return the shape the map was populated with, or null if none
+     */
+    public HexGrid.MapShape getMapShape() {
+        return mapShape;
+    }
+
+    public int getMapWidth() {
+        return mapWidth;
+    }
+
+    public int getMapHeight() {
+        return mapHeight;
+    }
+
+    /**
+     * @return the number of indices per row of the padded bounding box
+     */
+    public int getRowLength() {
+        return stride;
+    }
+
+    public int getRowCount() {
+        return rows;
+    }
+
+    /**
+     * @return whether the map has a hex at (q, r)
+     */
+    public boolean hasHex(int q, int r) {
+        int index = indexOf(q, r);
+        return index >= 0 && cell(index) != HexGridState.NO_HEX;
+    }
+
+    /**
+     * @return the type of the hex at (q, r), or {@link HexType#EMPTY} if the
+     * map has none there, like {@link HexGrid#getHexType(Hex)}
+     */
+    public HexType getHexType(int q, int r) {
+        int index = indexOf(q, r);
+        if (index < 0) {
+            return HexType.EMPTY;
+        }
+        byte cell = cell(index);
+        return cell == HexGridState.NO_HEX ? HexType.EMPTY : TYPES[cell];
+    }
+
+    private int indexOf(int q, int r) {
+        int col = q - qMin;
+        int row = r - rMin;
+        if (col < 0 || col >= stride || row < 0 || row >= rows) {
+            return -1;
+        }
+        return row * stride + col;
+    }
+
+    private byte cell(int index) {
+        int packed = body.get(index >>> 1);
+        return decode((index & 1) == 0 ? packed & 0xF : packed >>> 4 & 0xF, index);
+    }
+
+    private byte decode(int nibble, int index) {
+        if (nibble == NO_HEX_NIBBLE) {
+            return HexGridState.NO_HEX;
+        }
+        if (nibble >= TYPES.length) {
+            throw new IllegalStateException("Corrupt cell " + index + " in " + path);
+        }
+        return (byte) nibble;
+    }
+
+    /**
+     * Reads the whole map into a new grid
+     */
+    public HexGrid toGrid() {
+        HexGrid grid = newGrid(new Point2D(mapWidth, mapHeight));
+        grid.load(mapShape, qMin, rMin, stride, rows, (from, cells, offset, length) -> {
+            for (int i = 0; i < length; i++) {
+                cells[offset + i] = cell(from + i);
+            }
+        });
+        return grid;
+    }
+
+    /**
+     * Reads the hexes of an axial box of the map into a new grid, paging in
+     * only the rows of the file that the box covers
+     *
+     * @return a grid holding the hexes with qFrom &lt;= q &lt;= qTo and
+     * rFrom &lt;= r &lt;= rTo, and no map shape
+     */
+    public HexGrid toGrid(int qFrom, int rFrom, int qTo, int rTo) {
+        if (qFrom > qTo || rFrom > rTo) {
+            throw new IllegalArgumentException("Empty region (" + qFrom + ", " + rFrom +
+                ") to (" + qTo + ", " + rTo + ")");
+        }
+        HexGrid grid = newGrid(new Point2D(qTo - qFrom + 1, rTo - rFrom + 1));
+        // Clip to the cells the file has, its border holds no hexes anyway
+        int q0 = Math.max(qFrom, qMin);
+        int r0 = Math.max(rFrom, rMin);
+        int q1 = Math.min(qTo, qMin + stride - 1);
+        int r1 = Math.min(rTo, rMin + rows - 1);
+        if (q0 > q1 || r0 > r1) {
+            grid.reset();
+            return grid;
+        }
+        int regionStride = q1 - q0 + 3;
+        int regionRows = r1 - r0 + 3;
+        if ((long) regionStride * regionRows > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Region too large: " + regionStride + " x " +
+                regionRows);
+        }
+        grid.load(null, q0 - 1, r0 - 1, regionStride, regionRows,
+            (from, cells, offset, length) -> {
+                for (int i = 0; i < length; i++) {
+                    int col = (from + i) % regionStride;
+                    int row = (from + i) / regionStride;
+                    boolean border = col == 0 || col == regionStride - 1 ||
+                        row == 0 || row == regionRows - 1;
+                    cells[offset + i] = border ? HexGridState.NO_HEX :
+                        cell(indexOf(q0 - 1 + col, r0 - 1 + row));
+                }
+            });
+        return grid;
+    }
+
+    private HexGrid newGrid(Point2D dimensions) {
+        return new HexGrid(orientation, origin, size, dimensions);
+    }
+
+    /**
+     * Closes the file. The mapping itself is released once it is garbage
+     * collected.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return "HexMapFile[" + path + ", " + stride + " x " + rows + ", shape = " +
+            mapShape + "]";
+    }
+}
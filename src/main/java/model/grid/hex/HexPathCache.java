@@ -0,0 +1,263 @@
+package model.grid.hex;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Bounded least-recently-used cache of {@link HexPathfinder} results for one
+ * grid, keyed on (start, goal, method).
+ *
+ * The cache listens to the grid and only drops the entries an edit can
+ * affect. Making a hex more expensive, or walling it, only invalidates the
+ * paths that cross it. Making a hex cheaper invalidates every optimal path
+ * that could now be improved by going through it: those whose cost exceeds
+ * the cheapest conceivable detour over that hex. Results not proven
+ * optimal, from greedy, weighted or anytime search, depend on the order hexes
+ * happen to be explored in, so any edit drops them.
+ * Rebuilding the grid empties the cache.
+ *
+ * Searches run outside the cache lock, so edits are never held up by them.
+ * A result is only stored if no edit was published while it was computed.
+ */
+public class HexPathCache implements HexGridListener {
+
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+    public static final int DEFAULT_MAX_CELLS = 1 << 20;
+
+    private final HexGrid grid;
+    private final HexPathfinder pathfinder;
+    private final int maxEntries;
+    private final long maxCells;
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75F, true);
+    // The grid version that every stored entry is valid for
+    private long version;
+    private long cells = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long invalidations = 0;
+
+    private static final class Key {
+
+        final Hex start, end;
+        final String method;
+
+        Key(Hex start, Hex end, String method) {
+            this.start = start;
+            this.end = end;
+            this.method = method;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) object;
+            return start.equals(other.start) && end.equals(other.end) &&
+                method.equals(other.method);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * start.hashCode() + end.hashCode()) + method.hashCode();
+        }
+    }
+
+    private static final class Entry {
+
+        final HexSearchResult result;
+        final boolean optimal;
+        final int startIndex, endIndex;
+        // Cell indices of the path, sorted
+        final int[] cells;
+
+        Entry(HexSearchResult result, boolean optimal, int startIndex, int endIndex,
+              int[] cells) {
+            this.result = result;
+            this.optimal = optimal;
+            this.startIndex = startIndex;
+            this.endIndex = endIndex;
+            this.cells = cells;
+        }
+    }
+
+    public HexPathCache(HexGrid grid, HexPathfinder pathfinder) {
+        this(grid, pathfinder, DEFAULT_MAX_ENTRIES, DEFAULT_MAX_CELLS);
+    }
+
+    /**
+     * @param grid the grid to search, which this cache starts listening to
+     * @param pathfinder the pathfinder to compute missing results with
+     * @param maxEntries the most results to keep
+     * @param maxCells the most path hexes to keep, over all results
+     */
+    public HexPathCache(HexGrid grid, HexPathfinder pathfinder, int maxEntries, long maxCells) {
+        if (maxEntries < 1 || maxCells < 1) {
+            throw new IllegalArgumentException(
+                "Cache bounds must be positive: " + maxEntries + " entries, " + maxCells + " cells");
+        }
+        this.grid = grid;
+        this.pathfinder = pathfinder;
+        this.maxEntries = maxEntries;
+        this.maxCells = maxCells;
+        synchronized (this) {
+            grid.addListener(this);
+            version = grid.getVersion();
+        }
+    }
+
+    /**
+     * Stops listening to the grid and drops every entry
+     */
+    public synchronized void detach() {
+        grid.removeListener(this);
+        clear();
+    }
+
+    /**
+     * Returns the cached result of a query, searching on a miss
+     *
+     * @see HexPathfinder#search(HexGrid, Hex, Hex, String)
+     */
+    public HexSearchResult search(Hex start, Hex end, String method) {
+        if (start == null || end == null || method == null) {
+            throw new IllegalArgumentException(
+                "Invalid arguments for search. Start: " + start + " | Goal: " + end);
+        }
+        Key key = new Key(start, end, method);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hits++;
+                return entry.result;
+            }
+            misses++;
+        }
+
+        HexGrid snapshot = grid.snapshot();
+        HexSearchResult result = pathfinder.search(snapshot, start, end, method);
+        List<Hex> path = result.getPath();
+        int[] pathCells = new int[path.size()];
+        for (int i = 0; i < pathCells.length; i++) {
+            pathCells[i] = snapshot.indexOf(path.get(i));
+        }
+        Arrays.sort(pathCells);
+        Entry entry = new Entry(result, result.isOptimal(),
+            snapshot.indexOf(start), snapshot.indexOf(end), pathCells);
+
+        synchronized (this) {
+            if (snapshot.getVersion() == version) {
+                Entry old = entries.put(key, entry);
+                if (old != null) {
+                    cells -= old.cells.length;
+                }
+                cells += pathCells.length;
+                evict();
+            }
+        }
+        return result;
+    }
+
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while ((entries.size() > maxEntries || cells > maxCells) && iterator.hasNext()) {
+            cells -= iterator.next().cells.length;
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    @Override
+    public synchronized void onHexTypeChanged(HexGrid grid, int index, HexType oldType,
+                                              HexType newType) {
+        version = grid.getVersion();
+        boolean wasPassable = oldType != HexType.WALL;
+        boolean passable = newType != HexType.WALL;
+        boolean cheaper = passable && !wasPassable;
+        boolean dearer = wasPassable && !passable;
+        if (passable && wasPassable) {
+            // Steps in some directions may get cheaper while others get dearer
+            for (int d = 0; d < 6; ++d) {
+                double oldCost = grid.getMovementCost(oldType, d);
+                double newCost = grid.getMovementCost(newType, d);
+                cheaper |= newCost < oldCost;
+                dearer |= newCost > oldCost;
+            }
+        }
+        if (!cheaper && !dearer) {
+            return;
+        }
+
+        double base = grid.getBaseMovementCost();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            boolean stale;
+            if (!entry.optimal) {
+                stale = true;
+            } else {
+                stale = dearer && Arrays.binarySearch(entry.cells, index) >= 0;
+                if (!stale && cheaper) {
+                    // No path through the hex can cost less than this
+                    double detour = base * (grid.getStraightDistance(entry.startIndex, index) +
+                        grid.getStraightDistance(index, entry.endIndex));
+                    stale = detour < entry.result.getCost();
+                }
+            }
+            if (stale) {
+                cells -= entry.cells.length;
+                iterator.remove();
+                invalidations++;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onGridRebuilt(HexGrid grid) {
+        version = grid.getVersion();
+        invalidations += entries.size();
+        clear();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        cells = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return the number of entries dropped to stay within the bounds
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * @return the number of entries dropped because an edit could change them
+     */
+    public synchronized long getInvalidationCount() {
+        return invalidations;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "HexPathCache[entries = " + entries.size() + ", cells = " + cells +
+            ", hits = " + hits + ", misses = " + misses + ", evictions = " + evictions +
+            ", invalidations = " + invalidations + "]";
+    }
+}
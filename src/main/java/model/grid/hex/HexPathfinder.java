@@ -0,0 +1,431 @@
+package model.grid.hex;
+
+import util.IntPriorityQueue;
+import util.SearchMethods;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Headless search engine for a {@link HexGrid}. Has no dependency on the
+ * JavaFX toolkit, so queries can run on any thread of any JVM; visualizers
+ * observe a query through an optional {@link HexSearchListener}.
+ *
+ * Instances hold no per-query state and may be shared between threads once
+ * configured; scratch arrays come from the calling thread's
+ * {@link HexSearchWorkspace}.
+ */
+public class HexPathfinder {
+
+    public static final int DEFAULT_HEAP_ARITY = 4;
+    public static final double DEFAULT_WEIGHT = 2.0D;
+    /**
+     * The most buckets a search may need for the bucket queue to order its
+     * open set; searches whose priorities could go higher use the heap
+     */
+    public static final long BUCKET_LIMIT = 1L << 24;
+
+    private int heapArity = DEFAULT_HEAP_ARITY;
+    private boolean bucketQueueEnabled = true;
+    private HexHeuristic heuristic = HexHeuristic.HEX_DISTANCE;
+    private HexSearchMetrics metrics;
+    private double weight = DEFAULT_WEIGHT;
+    private long timeBudget = Long.MAX_VALUE;
+
+    public int getHeapArity() {
+        return heapArity;
+    }
+
+    /**
+     * @param heapArity the number of children per node of the open set heap
+     */
+    public void setHeapArity(int heapArity) {
+        if (heapArity < 2) {
+            throw new IllegalArgumentException("Heap arity must be at least 2: " + heapArity);
+        }
+        this.heapArity = heapArity;
+    }
+
+    public boolean isBucketQueueEnabled() {
+        return bucketQueueEnabled;
+    }
+
+    /**
+     * When enabled, the open set is a {@link util.BucketQueue} whenever every
+     * priority the search produces is a whole number no larger than
+     * {@link #BUCKET_LIMIT}, and an {@link util.IndexedHeap} otherwise.
+     */
+    public void setBucketQueueEnabled(boolean bucketQueueEnabled) {
+        this.bucketQueueEnabled = bucketQueueEnabled;
+    }
+
+    public HexHeuristic getHeuristic() {
+        return heuristic;
+    }
+
+    /**
+     * @param heuristic the estimate used by the greedy and A* methods,
+     *                  including weighted, anytime and bidirectional A*;
+     *                  jump point search always uses the hex distance
+     */
+    public void setHeuristic(HexHeuristic heuristic) {
+        if (heuristic == null) {
+            throw new IllegalArgumentException("Heuristic must not be null");
+        }
+        this.heuristic = heuristic;
+    }
+
+    public double getWeight() {
+        return weight;
+    }
+
+    /**
+     * @param weight how much more the estimate counts than the path cost so
+     *               far, for weighted A* and the first pass of anytime A*.
+     *               Their paths cost at most this many times the optimal.
+     */
+    public void setWeight(double weight) {
+        if (!(weight >= 1.0D) || weight == Double.POSITIVE_INFINITY) {
+            throw new IllegalArgumentException("Weight must be finite and at least 1: " + weight);
+        }
+        this.weight = weight;
+    }
+
+    public long getTimeBudget() {
+        return timeBudget;
+    }
+
+    /**
+     * @param timeBudget the nanoseconds anytime A* may spend improving its
+     *                   first path, counted from the start of the query, or
+     *                   {@link Long#MAX_VALUE} to improve it until optimal
+     */
+    public void setTimeBudget(long timeBudget) {
+        if (timeBudget < 0) {
+            throw new IllegalArgumentException("Invalid time budget " + timeBudget);
+        }
+        this.timeBudget = timeBudget;
+    }
+
+    public HexSearchMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * While metrics are installed, every query is timed and counted, its
+     * {@link HexSearchResult#getStats()} are filled in and added to the
+     * metrics. Without them searches do no bookkeeping beyond the expanded
+     * and pushed counts.
+     *
+     * @param metrics the metrics to record into, or null to stop recording
+     */
+    public void setMetrics(HexSearchMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Searches for a path without reporting progress
+     *
+     * @see #search(HexGrid, Hex, Hex, String, HexSearchListener)
+     */
+    public HexSearchResult search(HexGrid grid, Hex start, Hex end, String method) {
+        return search(grid, start, end, method, null);
+    }
+
+    /**
+     * Searches for a path between two hexes of the grid
+     *
+     * @param grid the grid to search
+     * @param start the starting hex
+     * @param end the goal hex
+     * @param method one of the {@link SearchMethods} constants
+     * @param listener receives progress callbacks, may be null
+     * @return the path, its cost and expansion statistics
+     */
+    public HexSearchResult search(HexGrid grid, Hex start, Hex end, String method,
+                                  HexSearchListener listener) {
+        if (start == null || end == null) {
+            throw new IllegalArgumentException(
+                "Invalid arguments for search. Start: " + start + " | Goal: " + end);
+        }
+
+        // Pin the current version so concurrent edits cannot tear the search
+        grid = grid.snapshot();
+        int startIndex = grid.indexOf(start);
+        int endIndex = grid.indexOf(end);
+        if (startIndex < 0 || endIndex < 0) {
+            throw new IllegalArgumentException(
+                "Search endpoints must be on the grid. Start: " + start + " | Goal: " + end);
+        }
+
+        HexSearchMetrics metrics = this.metrics;
+        if (metrics == null) {
+            return search(grid, startIndex, endIndex, method, listener, null);
+        }
+        HexSearchProbe probe = new HexSearchProbe();
+        long begin = System.nanoTime();
+        HexSearchResult result = search(grid, startIndex, endIndex, method, listener, probe);
+        long nanos = System.nanoTime() - begin;
+        HexSearchStats stats = new HexSearchStats(result.getExpandedCount(),
+            result.getPushedCount(), probe.getDecreaseKeyCount(), probe.getPeakOpenSize(),
+            probe.getHeuristicEvaluations(), nanos);
+        result.setStats(stats);
+        metrics.record(result, stats);
+        return result;
+    }
+
+    /**
+     * @param probe counts the work of the query, or null when not measuring
+     */
+    private HexSearchResult search(HexGrid grid, int startIndex, int endIndex, String method,
+                                   HexSearchListener listener, HexSearchProbe probe) {
+        HexHeuristic heuristic = this.heuristic;
+        HexSearchWorkspace workspace = HexSearchWorkspace.forCurrentThread();
+        workspace.begin(grid.getCellCount());
+
+        int priorityType;
+        switch (method) {
+            case SearchMethods.UCS:
+                priorityType = PRIORITY_G;
+                break;
+            case SearchMethods.GREEDY:
+                priorityType = PRIORITY_H;
+                break;
+            case SearchMethods.A_STAR:
+                priorityType = PRIORITY_F;
+                break;
+            case SearchMethods.WEIGHTED_A_STAR:
+                priorityType = PRIORITY_WEIGHTED;
+                break;
+            case SearchMethods.ANYTIME_A_STAR:
+                // Weighted priorities are rarely whole numbers, so always a heap
+                return new HexAnytimeSearch(grid, endIndex, probed(probe, heuristic), weight,
+                    System.nanoTime() + timeBudget).search(startIndex, workspace,
+                    probed(probe, workspace.getHeap(heapArity)), listener);
+            case SearchMethods.JPS:
+                return new HexJumpPointSearch(grid, endIndex,
+                    probed(probe, HexHeuristic.HEX_DISTANCE)).search(startIndex, workspace,
+                    probed(probe, openSet(grid, workspace, HexHeuristic.HEX_DISTANCE, 1.0D)),
+                    listener);
+            case SearchMethods.BIDIRECTIONAL_UCS:
+            case SearchMethods.BIDIRECTIONAL_A_STAR: {
+                HexSearchWorkspace reverse = HexSearchWorkspace.reverseForCurrentThread();
+                reverse.begin(grid.getCellCount());
+                if (method.equals(SearchMethods.BIDIRECTIONAL_UCS)) {
+                    return new HexBidirectionalSearch(grid, startIndex, endIndex, null).search(
+                        workspace,
+                        probed(probe, openSet(grid, workspace, HexHeuristic.HEX_DISTANCE, 0.0D)),
+                        reverse,
+                        probed(probe, openSet(grid, reverse, HexHeuristic.HEX_DISTANCE, 0.0D)),
+                        listener);
+                }
+                // Averaged potentials are multiples of one half, never bucketed
+                return new HexBidirectionalSearch(grid, startIndex, endIndex,
+                    probed(probe, heuristic)).search(
+                    workspace, probed(probe, workspace.getHeap(heapArity)),
+                    reverse, probed(probe, reverse.getHeap(heapArity)), listener);
+            }
+            default:
+                throw new IllegalArgumentException("Invalid search method " + method);
+        }
+        if (priorityType == PRIORITY_G) {
+            // Uniform cost search ignores the estimates, so skip the costly ones
+            heuristic = HexHeuristic.HEX_DISTANCE;
+        }
+        double weight = priorityType == PRIORITY_WEIGHTED ? this.weight : 1.0D;
+        IntPriorityQueue queue = probed(probe, weight == Math.rint(weight) ?
+            openSet(grid, workspace, heuristic, weight) : workspace.getHeap(heapArity));
+        heuristic = probed(probe, heuristic);
+
+        // Add initial node to the queue
+        workspace.visit(startIndex, heuristic.estimate(grid, startIndex, endIndex));
+        workspace.setPathCost(startIndex, 0.0D);
+        queue.push(startIndex,
+            priority(priorityType, weight, 0.0D, workspace.getHeuristic(startIndex)));
+        int expanded = 0;
+        int pushed = 1;
+
+        int goal = -1;
+        while (!queue.isEmpty()) {
+            int current = queue.poll();
+            expanded++;
+            if (listener != null) {
+                listener.onExpand(grid, current,
+                    workspace.getPathCost(current) + workspace.getHeuristic(current));
+            }
+
+            // The goal has been reached! (Lowest priority in the queue)
+            if (current == endIndex) {
+                goal = current;
+                break;
+            }
+            // Add the current node to the explored list
+            workspace.close(current);
+            // Loop through all the edges
+            int mask = grid.getNeighborMask(current);
+            for (int i = 0; i < 6; ++i) {
+                if ((mask & (1 << i)) == 0) {
+                    continue;
+                }
+                int neighbor = current + grid.getNeighborOffset(i);
+                // Only expand unexplored nodes
+                if (!workspace.isClosed(neighbor)) {
+                    if (listener != null) {
+                        listener.onFringe(grid, neighbor);
+                    }
+                    // Current cost + edge cost
+                    double newDist = workspace.getPathCost(current) +
+                        grid.getMovementCost(neighbor, i);
+                    if (!workspace.isVisited(neighbor)) {
+                        workspace.visit(neighbor,
+                            heuristic.estimate(grid, neighbor, endIndex));
+                    }
+                    // If a shorter distance is found...
+                    if (newDist < workspace.getPathCost(neighbor)) {
+                        // Update the new shorter distance
+                        workspace.setPathCost(neighbor, newDist);
+                        workspace.setParent(neighbor, current);
+                        queue.push(neighbor, priority(priorityType, weight, newDist,
+                            workspace.getHeuristic(neighbor)));
+                        pushed++;
+                    }
+                }
+            }
+        }
+        List<Hex> path = new ArrayList<>();
+        double cost;
+        if (goal >= 0) {
+            // Reconstruct path
+            cost = workspace.getPathCost(goal);
+            while (goal >= 0) {
+                path.add(grid.getHexAt(goal));
+                goal = workspace.getParent(goal);
+            }
+            Collections.reverse(path);
+        } else {
+            cost = Double.POSITIVE_INFINITY;
+        }
+        HexSearchResult result = new HexSearchResult(path, cost, expanded, pushed);
+        // Running out of hexes proves the goal unreachable whatever the order
+        if (result.isFound() && priorityType == PRIORITY_H) {
+            result.setSuboptimality(Double.POSITIVE_INFINITY);
+        } else if (result.isFound() && priorityType == PRIORITY_WEIGHTED) {
+            result.setSuboptimality(weight);
+        }
+        return result;
+    }
+
+    /**
+     * @param weight the weight of the estimates in the priorities
+     */
+    private IntPriorityQueue openSet(HexGrid grid, HexSearchWorkspace workspace,
+                                     HexHeuristic heuristic, double weight) {
+        // Path costs and estimates are whole numbers when the terrain costs
+        // are, which lets the cheaper bucket queue order the open set. No
+        // path visits a cell twice and no consistent estimate exceeds the
+        // longest path, which bounds the priorities and so the buckets.
+        double maxPriority = (1.0D + weight) * grid.getMaxPathCost();
+        return bucketQueueEnabled && grid.hasIntegralCosts() && heuristic.isIntegral(grid) &&
+            maxPriority <= BUCKET_LIMIT ?
+            workspace.getBucketQueue() : workspace.getHeap(heapArity);
+    }
+
+    private static IntPriorityQueue probed(HexSearchProbe probe, IntPriorityQueue queue) {
+        return probe == null ? queue : probe.wrap(queue);
+    }
+
+    private static HexHeuristic probed(HexSearchProbe probe, HexHeuristic heuristic) {
+        return probe == null ? heuristic : probe.wrap(heuristic);
+    }
+
+    /**
+     * Runs a batch of queries in parallel on the common fork/join pool
+     *
+     * @see #searchAll(HexGrid, List, ForkJoinPool)
+     */
+    public List<HexSearchResult> searchAll(HexGrid grid, List<HexSearchQuery> queries) {
+        return searchAll(grid, queries, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Runs a batch of queries in parallel against a frozen snapshot of the
+     * grid. Each worker thread searches with its own workspace.
+     *
+     * @param grid the grid to search, snapshotted once for the whole batch
+     * @param queries the queries to run
+     * @param pool the pool to fan the queries out on
+     * @return one result per query, in query order
+     */
+    public List<HexSearchResult> searchAll(HexGrid grid, List<HexSearchQuery> queries,
+                                           ForkJoinPool pool) {
+        HexGrid snapshot = grid.snapshot();
+        HexSearchQuery[] batch = queries.toArray(new HexSearchQuery[0]);
+        HexSearchResult[] results = new HexSearchResult[batch.length];
+        int threshold = Math.max(1, batch.length / (pool.getParallelism() * 8));
+        pool.invoke(new BatchTask(snapshot, batch, results, 0, batch.length, threshold));
+        return Arrays.asList(results);
+    }
+
+    private class BatchTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final HexGrid grid;
+        private final HexSearchQuery[] queries;
+        private final HexSearchResult[] results;
+        private final int from, to, threshold;
+
+        BatchTask(HexGrid grid, HexSearchQuery[] queries, HexSearchResult[] results,
+                  int from, int to, int threshold) {
+            this.grid = grid;
+            this.queries = queries;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= threshold) {
+                for (int i = from; i < to; i++) {
+                    HexSearchQuery query = queries[i];
+                    results[i] = search(grid, query.getStart(), query.getEnd(),
+                        query.getMethod());
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(
+                new BatchTask(grid, queries, results, from, mid, threshold),
+                new BatchTask(grid, queries, results, mid, to, threshold)
+            );
+        }
+    }
+
+    private static final int PRIORITY_G = 0;
+    private static final int PRIORITY_H = 1;
+    private static final int PRIORITY_F = 2;
+    private static final int PRIORITY_WEIGHTED = 3;
+
+    private static double priority(int priorityType, double weight, double g, double h) {
+        switch (priorityType) {
+            case PRIORITY_G:
+                // Only use g(x) - path cost
+                return g;
+            case PRIORITY_H:
+                // Only use h(x) - heuristic
+                return h;
+            case PRIORITY_WEIGHTED:
+                // Trust h(x) more than g(x)
+                return g + weight * h;
+            default:
+                // Use both g(x) & h(x)
+                return g + h;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package model.grid.hex;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs searches one at a time on a background thread, so the thread that
+ * asks for a path never waits for it.
+ *
+ * Only the latest query matters: submitting one cancels the search before
+ * it, which stops at its next expansion instead of holding up the new one.
+ * Results and progress are handed back through a callback executor, such
+ * as {@code Platform::runLater} for a JavaFX view.
+ */
+public class HexSearchExecutor {
+
+    private final HexPathfinder pathfinder;
+    private final Executor callbacks;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor((runnable) -> {
+        Thread thread = new Thread(runnable, "hex-search");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // The last task submitted, guarded by this
+    private HexSearchTask latest;
+
+    /**
+     * @param pathfinder the pathfinder to run the searches with
+     * @param callbacks runs the progress callbacks of every search
+     */
+    public HexSearchExecutor(HexPathfinder pathfinder, Executor callbacks) {
+        this.pathfinder = pathfinder;
+        this.callbacks = callbacks;
+    }
+
+    /**
+     * Cancels the search still running, if any, and starts another. The
+     * new search sees the grid as it is now, whatever edits follow.
+     *
+     * @param listener receives the search's callbacks on the searching
+     *                 thread, may be null
+     * @param progress hears about the search through the callback executor,
+     *                 may be null
+     * @return the search, which may be cancelled at any time
+     */
+    public synchronized HexSearchTask submit(HexGrid grid, Hex start, Hex end, String method,
+                                             HexSearchListener listener,
+                                             HexSearchProgress progress) {
+        cancel();
+        latest = new HexSearchTask(pathfinder, grid.snapshot(), start, end, method,
+            listener, progress, callbacks);
+        worker.execute(latest::run);
+        return latest;
+    }
+
+    /**
+     * Cancels the last search submitted, if it has not finished
+     */
+    public synchronized void cancel() {
+        if (latest != null) {
+            latest.cancel(false);
+            latest = null;
+        }
+    }
+
+    /**
+     * Cancels the last search and lets the thread go once it has stopped
+     */
+    public void shutdown() {
+        cancel();
+        worker.shutdown();
+    }
+}
@@ -0,0 +1,48 @@
+package model.grid.hex;
+
+/**
+ * Receives progress callbacks from a {@link HexPathfinder} while a search
+ * runs. Used by visualizers; headless queries simply pass no listener.
+ *
+ * Searches call the index-based methods, which by default look up the hex
+ * and pass it on. Listeners that only need the cell, such as
+ * {@link HexSearchLog}, override those instead and allocate nothing.
+ */
+public interface HexSearchListener {
+
+    /**
+     * Called when a hex is taken off the open set to be expanded
+     *
+     * @param hex the hex being expanded
+     */
+    default void onExpand(Hex hex) { }
+
+    /**
+     * Called when an unexplored neighbor of the expanding hex is examined
+     *
+     * @param hex the neighbor being examined
+     */
+    default void onFringe(Hex hex) { }
+
+    /**
+     * Called when a hex is taken off the open set to be expanded
+     *
+     * @param grid the grid being searched
+     * @param index the index of the hex being expanded
+     * @param f the cost of the best path to the hex plus its estimated
+     *          cost to the goal
+     */
+    default void onExpand(HexGrid grid, int index, double f) {
+        onExpand(grid.getHexAt(index));
+    }
+
+    /**
+     * Called when an unexplored neighbor of the expanding hex is examined
+     *
+     * @param grid the grid being searched
+     * @param index the index of the neighbor being examined
+     */
+    default void onFringe(HexGrid grid, int index) {
+        onFringe(grid.getHexAt(index));
+    }
+}
@@ -0,0 +1,137 @@
+package model.grid.hex;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Records what a search did as a flat list of events, each a cell index and
+ * a kind, for a {@link HexSearchPlayer} to replay later at whatever pace
+ * suits the viewer.
+ *
+ * An event takes five bytes: one int for the cell and one byte for the
+ * kind, kept in two growing arrays. A search of a hundred thousand
+ * expansions logs in about a megabyte, and nothing is allocated per event
+ * once the arrays have grown.
+ */
+public class HexSearchLog implements HexSearchListener {
+
+    /**
+     * A hex was taken off the open set to be expanded
+     */
+    public static final byte EXPAND = 0;
+    /**
+     * An unexplored neighbor of the expanding hex was examined
+     */
+    public static final byte FRINGE = 1;
+    /**
+     * A hex lies on the path found
+     */
+    public static final byte PATH = 2;
+    /**
+     * A hex is shown as its own type again, as the start and end are once
+     * the path is drawn
+     */
+    public static final byte MARK = 3;
+
+    private int[] cells;
+    private byte[] kinds;
+    private int size = 0;
+
+    public HexSearchLog() {
+        this(1024);
+    }
+
+    /**
+     * @param capacity the number of events to make room for up front
+     */
+    public HexSearchLog(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        cells = new int[Math.max(16, capacity)];
+        kinds = new byte[cells.length];
+    }
+
+    @Override
+    public void onExpand(HexGrid grid, int index, double f) {
+        add(index, EXPAND);
+    }
+
+    @Override
+    public void onFringe(HexGrid grid, int index) {
+        add(index, FRINGE);
+    }
+
+    /**
+     * Appends an event
+     *
+     * @param kind one of {@link #EXPAND}, {@link #FRINGE}, {@link #PATH} or
+     *             {@link #MARK}
+     */
+    public void add(int index, byte kind) {
+        if (kind < EXPAND || kind > MARK) {
+            throw new IllegalArgumentException("Invalid event kind " + kind);
+        }
+        if (size == cells.length) {
+            cells = Arrays.copyOf(cells, cells.length * 2);
+            kinds = Arrays.copyOf(kinds, cells.length);
+        }
+        cells[size] = index;
+        kinds[size] = kind;
+        size++;
+    }
+
+    /**
+     * Appends the hexes of a path, from start to end
+     */
+    public void addPath(HexGrid grid, List<Hex> path) {
+        for (Hex hex : path) {
+            add(grid.indexOf(hex), PATH);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the cell index of an event
+     */
+    public int getIndex(int event) {
+        checkEvent(event);
+        return cells[event];
+    }
+
+    /**
+     * @return the kind of an event
+     */
+    public byte getKind(int event) {
+        checkEvent(event);
+        return kinds[event];
+    }
+
+    /**
+     * Forgets every event, keeping the arrays for the next search
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return the bytes held by the event arrays
+     */
+    public long getFootprint() {
+        return 5L * cells.length;
+    }
+
+    private void checkEvent(int event) {
+        if (event < 0 || event >= size) {
+            throw new IndexOutOfBoundsException("Event " + event + " of " + size);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "HexSearchLog[" + size + " events, " + getFootprint() + " bytes]";
+    }
+}
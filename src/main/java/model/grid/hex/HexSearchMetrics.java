@@ -0,0 +1,111 @@
+package model.grid.hex;
+
+import util.LongHistogram;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregate counters and percentile histograms over every query of the
+ * pathfinders it is installed on. Recording is thread-safe and allocation
+ * free, so one instance can collect the queries of a parallel batch.
+ *
+ * @see HexPathfinder#setMetrics(HexSearchMetrics)
+ */
+public class HexSearchMetrics {
+
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder found = new LongAdder();
+    private final LongAdder expanded = new LongAdder();
+    private final LongAdder pushed = new LongAdder();
+    private final LongAdder decreaseKeys = new LongAdder();
+    private final LongAdder heuristicEvaluations = new LongAdder();
+    private final LongAccumulator peakOpenSize = new LongAccumulator(Math::max, 0L);
+    private final LongHistogram latency = new LongHistogram();
+    private final LongHistogram expansions = new LongHistogram();
+
+    void record(HexSearchResult result, HexSearchStats stats) {
+        queries.increment();
+        if (result.isFound()) {
+            found.increment();
+        }
+        expanded.add(stats.getExpandedCount());
+        pushed.add(stats.getPushedCount());
+        decreaseKeys.add(stats.getDecreaseKeyCount());
+        heuristicEvaluations.add(stats.getHeuristicEvaluations());
+        peakOpenSize.accumulate(stats.getPeakOpenSize());
+        latency.record(stats.getNanos());
+        expansions.record(stats.getExpandedCount());
+    }
+
+    public long getQueryCount() {
+        return queries.sum();
+    }
+
+    public long getFoundCount() {
+        return found.sum();
+    }
+
+    public long getExpandedCount() {
+        return expanded.sum();
+    }
+
+    public long getPushedCount() {
+        return pushed.sum();
+    }
+
+    public long getDecreaseKeyCount() {
+        return decreaseKeys.sum();
+    }
+
+    public long getHeuristicEvaluations() {
+        return heuristicEvaluations.sum();
+    }
+
+    /**
+     * @return the largest open set of any single query
+     */
+    public long getPeakOpenSize() {
+        return peakOpenSize.get();
+    }
+
+    /**
+     * @return query wall-clock times in nanoseconds
+     */
+    public LongHistogram getLatencyHistogram() {
+        return latency;
+    }
+
+    /**
+     * @return the number of hexes expanded per query
+     */
+    public LongHistogram getExpansionHistogram() {
+        return expansions;
+    }
+
+    public void reset() {
+        queries.reset();
+        found.reset();
+        expanded.reset();
+        pushed.reset();
+        decreaseKeys.reset();
+        heuristicEvaluations.reset();
+        peakOpenSize.reset();
+        latency.reset();
+        expansions.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+            "HexSearchMetrics[queries = %d, found = %d, expanded = %d, pushed = %d, " +
+                "decreaseKeys = %d, heuristicEvaluations = %d, peakOpenSize = %d, " +
+                "latency us p50 = %.1f, p90 = %.1f, p99 = %.1f, p99.9 = %.1f, max = %.1f]",
+            getQueryCount(), getFoundCount(), getExpandedCount(), getPushedCount(),
+            getDecreaseKeyCount(), getHeuristicEvaluations(), getPeakOpenSize(),
+            latency.getValueAtPercentile(50) / 1e3, latency.getValueAtPercentile(90) / 1e3,
+            latency.getValueAtPercentile(99) / 1e3, latency.getValueAtPercentile(99.9) / 1e3,
+            latency.getMax() / 1e3);
+    }
+}
@@ -0,0 +1,219 @@
+package model.grid.hex;
+
+import javafx.animation.AnimationTimer;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+/**
+ * Replays a {@link HexSearchLog} over a renderer's canvas, painting as many
+ * events on each frame as the playback rate allows.
+ *
+ * Playback costs one timer however long the log is; seeking forward paints
+ * the skipped events at once, and seeking back repaints the grid and then
+ * every event up to the new position. All methods must be called on the
+ * JavaFX application thread.
+ */
+public class HexSearchPlayer {
+
+    /**
+     * Events painted per second unless told otherwise, one every 20ms
+     */
+    public static final double DEFAULT_RATE = 50.0D;
+
+    // Polygons per path before it is filled
+    private static final int BATCH_SIZE = 1024;
+
+    private final HexGridRenderer renderer;
+    private final HexSearchLog log;
+    // Fill colors by event kind, as on open ground and on rough terrain
+    private final Color[] colors = {
+        Color.web("#d6e87d"), Color.web("#6688cc"), Color.ORANGE
+    };
+    private final Color[] roughColors = {
+        colors[0].darker(), colors[1].darker(), colors[2].darker()
+    };
+    private double rate = DEFAULT_RATE;
+    private int position = 0;
+    private Runnable onFinished;
+
+    // Events owed to the viewer but not yet painted, in fractions of one
+    private double owed;
+    private long lastFrame;
+    private boolean playing = false;
+    private boolean finished = false;
+
+    private final double[] cornerX = new double[6];
+    private final double[] cornerY = new double[6];
+
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            if (lastFrame != 0) {
+                owed += (now - lastFrame) * rate / 1e9;
+            }
+            lastFrame = now;
+            int due = (int) Math.min(owed, log.size() - position);
+            owed -= due;
+            paint(position + due);
+            if (position == log.size()) {
+                finish();
+            }
+        }
+    };
+
+    /**
+     * @param renderer draws the grid under the replay, and again when
+     *                 seeking back
+     * @param log the events to replay
+     */
+    public HexSearchPlayer(HexGridRenderer renderer, HexSearchLog log) {
+        this.renderer = renderer;
+        this.log = log;
+    }
+
+    public HexSearchLog getLog() {
+        return log;
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * @param rate the number of events painted per second
+     */
+    public void setRate(double rate) {
+        if (!(rate > 0.0D) || rate == Double.POSITIVE_INFINITY) {
+            throw new IllegalArgumentException("Rate must be positive and finite: " + rate);
+        }
+        this.rate = rate;
+    }
+
+    /**
+     * @param kind the kind of event to paint in the color
+     * @param color the fill color, darkened on terrain dearer than the
+     *              cheapest step
+     */
+    public void setColor(byte kind, Color color) {
+        if (kind < HexSearchLog.EXPAND || kind >= HexSearchLog.MARK) {
+            throw new IllegalArgumentException("Invalid event kind " + kind);
+        }
+        colors[kind] = color;
+        roughColors[kind] = color.darker();
+    }
+
+    /**
+     * @param onFinished run once the last event is painted
+     */
+    public void setOnFinished(Runnable onFinished) {
+        this.onFinished = onFinished;
+    }
+
+    /**
+     * @return the number of events painted so far
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    public boolean isPlaying() {
+        return playing;
+    }
+
+    public void play() {
+        if (playing) {
+            return;
+        }
+        playing = true;
+        owed = 0.0D;
+        lastFrame = 0;
+        timer.start();
+    }
+
+    public void pause() {
+        playing = false;
+        timer.stop();
+    }
+
+    /**
+     * Shows the replay as it stood after a number of events, without
+     * changing whether it plays on
+     */
+    public void seek(int position) {
+        if (position < 0 || position > log.size()) {
+            throw new IllegalArgumentException(
+                "Position " + position + " outside the log of " + log.size());
+        }
+        if (position < this.position) {
+            renderer.redraw();
+            this.position = 0;
+            finished = false;
+        }
+        paint(position);
+    }
+
+    /**
+     * Paints every remaining event and finishes the replay
+     */
+    public void skipToEnd() {
+        paint(log.size());
+        finish();
+    }
+
+    private void finish() {
+        pause();
+        if (!finished) {
+            finished = true;
+            if (onFinished != null) {
+                onFinished.run();
+            }
+        }
+    }
+
+    /**
+     * Paints the events from the current position up to another, filling
+     * each run of events of one color as a single path
+     */
+    private void paint(int to) {
+        HexGrid grid = renderer.getGrid();
+        HexGridState state = grid.getState();
+        HexLayout layout = grid.getLayout();
+        GraphicsContext ctx = renderer.getCanvas().getGraphicsContext2D();
+        Color current = null;
+        int traced = 0;
+        for (; position < to; position++) {
+            int index = log.getIndex(position);
+            byte kind = log.getKind(position);
+            HexType type = grid.getHexType(index);
+            Color color;
+            if (kind == HexSearchLog.MARK) {
+                color = HexGrid.COLORS.get(type);
+                if (color == null) {
+                    color = renderer.getBackground();
+                }
+            } else {
+                color = grid.getMovementCost(type) > grid.getBaseMovementCost() ?
+                    roughColors[kind] : colors[kind];
+            }
+            if (color != current || traced == BATCH_SIZE) {
+                if (traced > 0) {
+                    ctx.fill();
+                }
+                ctx.setFill(color);
+                ctx.beginPath();
+                current = color;
+                traced = 0;
+            }
+            layout.corners(state.qAt(index), state.rAt(index), cornerX, cornerY);
+            ctx.moveTo(cornerX[0], cornerY[0]);
+            for (int i = 1; i < 6; i++) {
+                ctx.lineTo(cornerX[i], cornerY[i]);
+            }
+            ctx.closePath();
+            traced++;
+        }
+        if (traced > 0) {
+            ctx.fill();
+        }
+    }
+}
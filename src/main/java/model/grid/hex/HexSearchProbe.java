@@ -0,0 +1,111 @@
+package model.grid.hex;
+
+import util.IntPriorityQueue;
+
+/**
+ * Counts the work of one query by standing in for its open sets and its
+ * heuristic. Only created while metrics are enabled, so an unmetered search
+ * runs against the bare queues with no counting at all.
+ */
+final class HexSearchProbe {
+
+    private int openSize = 0;
+    private int peakOpenSize = 0;
+    private int decreaseKeys = 0;
+    private long heuristicEvaluations = 0L;
+
+    int getPeakOpenSize() {
+        return peakOpenSize;
+    }
+
+    int getDecreaseKeyCount() {
+        return decreaseKeys;
+    }
+
+    long getHeuristicEvaluations() {
+        return heuristicEvaluations;
+    }
+
+    /**
+     * @return a view of the queue that reports to this probe. Every queue
+     * wrapped by the same probe adds to one open set size.
+     */
+    IntPriorityQueue wrap(IntPriorityQueue queue) {
+        return new ProbedQueue(queue);
+    }
+
+    HexHeuristic wrap(HexHeuristic heuristic) {
+        return new HexHeuristic() {
+            @Override
+            public double estimate(HexGrid grid, int from, int to) {
+                heuristicEvaluations++;
+                return heuristic.estimate(grid, from, to);
+            }
+
+            @Override
+            public boolean isIntegral(HexGrid grid) {
+                return heuristic.isIntegral(grid);
+            }
+        };
+    }
+
+    private final class ProbedQueue implements IntPriorityQueue {
+
+        private final IntPriorityQueue queue;
+
+        ProbedQueue(IntPriorityQueue queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return queue.isEmpty();
+        }
+
+        @Override
+        public int size() {
+            return queue.size();
+        }
+
+        @Override
+        public boolean contains(int element) {
+            return queue.contains(element);
+        }
+
+        @Override
+        public void push(int element, double priority) {
+            if (queue.contains(element)) {
+                decreaseKeys++;
+            } else if (++openSize > peakOpenSize) {
+                peakOpenSize = openSize;
+            }
+            queue.push(element, priority);
+        }
+
+        @Override
+        public int poll() {
+            openSize--;
+            return queue.poll();
+        }
+
+        @Override
+        public boolean remove(int element) {
+            if (queue.remove(element)) {
+                openSize--;
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public double peekPriority() {
+            return queue.peekPriority();
+        }
+
+        @Override
+        public void clear() {
+            openSize -= queue.size();
+            queue.clear();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package model.grid.hex;
+
+/**
+ * Hears how a search submitted to a {@link HexSearchExecutor} is getting on.
+ * Every method is called through the executor's callback executor, such as
+ * the JavaFX application thread, and none is called once the search has
+ * been cancelled, even if it had already finished.
+ */
+public interface HexSearchProgress {
+
+    /**
+     * Called every so often while the search runs. Calls are dropped rather
+     * than queued while the previous one is still waiting to run.
+     *
+     * @param expanded the number of hexes expanded so far
+     * @param f the f of the hex expanded last, the cost of the best path
+     *          through it the search can hope for
+     */
+    default void onProgress(int expanded, double f) { }
+
+    /**
+     * Called once the search has finished
+     */
+    default void onFinished(HexSearchResult result) { }
+
+    /**
+     * Called instead of {@link #onFinished(HexSearchResult)} if the search
+     * threw
+     */
+    default void onFailed(Throwable error) { }
+}
@@ -0,0 +1,41 @@
+package model.grid.hex;
+
+import util.SearchMethods;
+
+/**
+ * A single start/goal query for batch searches.
+ */
+public class HexSearchQuery {
+
+    private final Hex start;
+    private final Hex end;
+    private final String method;
+
+    /**
+     * @param start the starting hex
+     * @param end the goal hex
+     * @param method one of the {@link SearchMethods} constants
+     */
+    public HexSearchQuery(Hex start, Hex end, String method) {
+        this.start = start;
+        this.end = end;
+        this.method = method;
+    }
+
+    public Hex getStart() {
+        return start;
+    }
+
+    public Hex getEnd() {
+        return end;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    @Override
+    public String toString() {
+        return "HexSearchQuery[" + start + " -> " + end + ", " + method + "]";
+    }
+}
@@ -0,0 +1,113 @@
+package model.grid.hex;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a single {@link HexPathfinder} query.
+ */
+public class HexSearchResult {
+
+    private final List<Hex> path;
+    private final double cost;
+    private final int expanded;
+    private final int pushed;
+    private HexSearchStats stats;
+    private double suboptimality = 1.0D;
+
+    public HexSearchResult(List<Hex> path, double cost, int expanded, int pushed) {
+        this.path = Collections.unmodifiableList(path);
+        this.cost = cost;
+        this.expanded = expanded;
+        this.pushed = pushed;
+    }
+
+    /**
+     * For results that build their path on demand by overriding
+     * {@link #getPath()}
+     */
+    protected HexSearchResult(double cost, int expanded, int pushed) {
+        this.path = null;
+        this.cost = cost;
+        this.expanded = expanded;
+        this.pushed = pushed;
+    }
+
+    /**
+     * @return whether the goal was reached
+     */
+    public boolean isFound() {
+        return cost != Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @return the path from start to goal inclusive, or an empty list if the
+     * goal is unreachable
+     */
+    public List<Hex> getPath() {
+        return path;
+    }
+
+    /**
+     * @return the total movement cost of the path, or infinity if the goal is
+     * unreachable
+     */
+    public double getCost() {
+        return cost;
+    }
+
+    /**
+     * @return the number of hexes taken off the open set
+     */
+    public int getExpandedCount() {
+        return expanded;
+    }
+
+    /**
+     * @return the number of hexes pushed onto the open set
+     */
+    public int getPushedCount() {
+        return pushed;
+    }
+
+    /**
+     * @return how many times the optimal cost the path may cost at most: 1
+     * for a path proven optimal (or a goal proven unreachable), the weight
+     * for weighted A*, the bound reached by the deadline for anytime A*,
+     * and infinity for greedy search and paths through hierarchical
+     * cluster entrances
+     */
+    public double getSuboptimality() {
+        return suboptimality;
+    }
+
+    /**
+     * @return whether the path is known to be optimal
+     */
+    public boolean isOptimal() {
+        return suboptimality == 1.0D;
+    }
+
+    void setSuboptimality(double suboptimality) {
+        this.suboptimality = suboptimality;
+    }
+
+    /**
+     * @return what the query cost to run, or null if the pathfinder that ran
+     * it had no metrics installed
+     */
+    public HexSearchStats getStats() {
+        return stats;
+    }
+
+    void setStats(HexSearchStats stats) {
+        this.stats = stats;
+    }
+
+    @Override
+    public String toString() {
+        return "HexSearchResult[cost = " + cost + ", suboptimality = " + suboptimality +
+            ", expanded = " + expanded +
+            ", pushed = " + pushed + ", path = " + getPath() + "]";
+    }
+}
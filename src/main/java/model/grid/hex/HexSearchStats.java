@@ -0,0 +1,76 @@
+package model.grid.hex;
+
+/**
+ * Work done by a single {@link HexPathfinder} query, attached to its result
+ * when the pathfinder has {@link HexSearchMetrics} installed.
+ */
+public class HexSearchStats {
+
+    private final int expanded;
+    private final int pushed;
+    private final int decreaseKeys;
+    private final int peakOpenSize;
+    private final long heuristicEvaluations;
+    private final long nanos;
+
+    HexSearchStats(int expanded, int pushed, int decreaseKeys, int peakOpenSize,
+                   long heuristicEvaluations, long nanos) {
+        this.expanded = expanded;
+        this.pushed = pushed;
+        this.decreaseKeys = decreaseKeys;
+        this.peakOpenSize = peakOpenSize;
+        this.heuristicEvaluations = heuristicEvaluations;
+        this.nanos = nanos;
+    }
+
+    /**
+     * @return the number of hexes taken off the open set
+     */
+    public int getExpandedCount() {
+        return expanded;
+    }
+
+    /**
+     * @return the number of pushes onto the open set, including the ones
+     * that only lowered the priority of a hex already in it
+     */
+    public int getPushedCount() {
+        return pushed;
+    }
+
+    /**
+     * @return the number of pushes that lowered the priority of a hex already
+     * in the open set. The open sets update such hexes in place, so these
+     * take the place of the stale entries a lazy-deletion queue would pop.
+     */
+    public int getDecreaseKeyCount() {
+        return decreaseKeys;
+    }
+
+    /**
+     * @return the largest number of hexes in the open set at once, counting
+     * both frontiers of a bidirectional search
+     */
+    public int getPeakOpenSize() {
+        return peakOpenSize;
+    }
+
+    public long getHeuristicEvaluations() {
+        return heuristicEvaluations;
+    }
+
+    /**
+     * @return the wall-clock time of the query in nanoseconds
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    @Override
+    public String toString() {
+        return "HexSearchStats[expanded = " + expanded + ", pushed = " + pushed +
+            ", decreaseKeys = " + decreaseKeys + ", peakOpenSize = " + peakOpenSize +
+            ", heuristicEvaluations = " + heuristicEvaluations +
+            ", micros = " + nanos / 1000 + "]";
+    }
+}
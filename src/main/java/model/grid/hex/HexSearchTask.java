@@ -0,0 +1,180 @@
+package model.grid.hex;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A search running in the background, as handed out by
+ * {@link HexSearchExecutor#submit}.
+ *
+ * Cancelling the task stops the search at its next expansion, not just
+ * its result: the search checks the task on every hex it expands and bails
+ * out once it is cancelled, so a superseded query frees its thread right
+ * away.
+ */
+public class HexSearchTask implements Future<HexSearchResult> {
+
+    /**
+     * Expansions between progress reports
+     */
+    public static final int PROGRESS_INTERVAL = 4096;
+
+    private final FutureTask<HexSearchResult> future;
+    private final HexSearchListener listener;
+    private final HexSearchProgress progress;
+    private final Executor callbacks;
+    private final AtomicBoolean reportPending = new AtomicBoolean();
+    private final Monitor monitor = new Monitor();
+    // Set by any cancel, even one too late to stop the search
+    private volatile boolean abandoned = false;
+
+    // Written by the searching thread, read by anyone
+    private volatile int expanded;
+    private volatile double f = Double.NaN;
+
+    /**
+     * @param listener receives the search's callbacks on the searching
+     *                 thread, may be null
+     * @param progress hears about the search through the callback executor,
+     *                 may be null
+     */
+    HexSearchTask(HexPathfinder pathfinder, HexGrid grid, Hex start, Hex end, String method,
+                  HexSearchListener listener, HexSearchProgress progress,
+                  Executor callbacks) {
+        this.listener = listener;
+        this.progress = progress;
+        this.callbacks = callbacks;
+        this.future = new FutureTask<HexSearchResult>(() -> {
+            HexSearchResult result = pathfinder.search(grid, start, end, method, monitor);
+            expanded = monitor.count;
+            f = monitor.last;
+            return result;
+        }) {
+            @Override
+            protected void done() {
+                finished();
+            }
+        };
+    }
+
+    void run() {
+        future.run();
+    }
+
+    /**
+     * @return the number of hexes expanded as of the last progress report,
+     * or in all once the search has finished
+     */
+    public int getExpandedCount() {
+        return expanded;
+    }
+
+    /**
+     * @return the f of the hex expanded last as of the last progress report,
+     * or of the last hex expanded once the search has finished
+     */
+    public double getF() {
+        return f;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        abandoned = true;
+        return future.cancel(mayInterruptIfRunning);
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return future.isCancelled();
+    }
+
+    @Override
+    public boolean isDone() {
+        return future.isDone();
+    }
+
+    @Override
+    public HexSearchResult get() throws InterruptedException, ExecutionException {
+        return future.get();
+    }
+
+    @Override
+    public HexSearchResult get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+        return future.get(timeout, unit);
+    }
+
+    private void report(int expanded, double f) {
+        this.expanded = expanded;
+        this.f = f;
+        if (progress == null || !reportPending.compareAndSet(false, true)) {
+            return;
+        }
+        callbacks.execute(() -> {
+            reportPending.set(false);
+            if (!abandoned && !future.isDone()) {
+                progress.onProgress(this.expanded, this.f);
+            }
+        });
+    }
+
+    private void finished() {
+        if (progress == null || abandoned) {
+            return;
+        }
+        callbacks.execute(() -> {
+            // Cancelling a search that has just finished still drops it
+            if (abandoned) {
+                return;
+            }
+            HexSearchResult result;
+            try {
+                result = future.get();
+            } catch (ExecutionException e) {
+                progress.onFailed(e.getCause());
+                return;
+            } catch (InterruptedException | CancellationException e) {
+                return;
+            }
+            progress.onProgress(expanded, f);
+            progress.onFinished(result);
+        });
+    }
+
+    /**
+     * Sits between the search and the caller's listener, counting
+     * expansions and stopping the search once the task is cancelled
+     */
+    private class Monitor implements HexSearchListener {
+
+        private int count = 0;
+        private double last = Double.NaN;
+
+        @Override
+        public void onExpand(HexGrid grid, int index, double f) {
+            if (future.isCancelled()) {
+                throw new CancellationException();
+            }
+            last = f;
+            if (++count % PROGRESS_INTERVAL == 0) {
+                report(count, f);
+            }
+            if (listener != null) {
+                listener.onExpand(grid, index, f);
+            }
+        }
+
+        @Override
+        public void onFringe(HexGrid grid, int index) {
+            if (listener != null) {
+                listener.onFringe(grid, index);
+            }
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package model.grid.hex;
+
+import util.BucketQueue;
+import util.IndexedHeap;
+
+import java.util.Arrays;
+
+/**
+ * Reusable per-query scratch state for {@link HexPathfinder}. Per-cell values
+ * are stamped with the generation of the query that wrote them, so starting a
+ * new query invalidates everything in O(1) instead of clearing the arrays.
+ *
+ * A workspace is not thread-safe; {@link #forCurrentThread()} hands out one
+ * per thread, grown to the largest grid that thread has searched. Searches
+ * that run two frontiers at once take the second one from
+ * {@link #reverseForCurrentThread()}.
+ */
+public class HexSearchWorkspace {
+
+    private static final ThreadLocal<HexSearchWorkspace> WORKSPACES =
+        ThreadLocal.withInitial(HexSearchWorkspace::new);
+
+    private static final ThreadLocal<HexSearchWorkspace> REVERSE_WORKSPACES =
+        ThreadLocal.withInitial(HexSearchWorkspace::new);
+
+    public static HexSearchWorkspace forCurrentThread() {
+        return WORKSPACES.get();
+    }
+
+    /**
+     * @return a second workspace of the calling thread, distinct from
+     * {@link #forCurrentThread()}, for the backward half of a bidirectional
+     * search
+     */
+    public static HexSearchWorkspace reverseForCurrentThread() {
+        return REVERSE_WORKSPACES.get();
+    }
+
+    private static final int CHUNK_SHIFT = HexGridState.CHUNK_SHIFT;
+    private static final int CHUNK_SIZE = HexGridState.CHUNK_SIZE;
+    private static final int CHUNK_MASK = HexGridState.CHUNK_MASK;
+
+    // Int fields of a cell within a chunk, interleaved so they share a cache line
+    private static final int VISITED = 0;
+    private static final int CLOSED = 1;
+    private static final int PARENT = 2;
+    private static final int DIRECTION = 3;
+    private static final int INT_SHIFT = 2;
+    // Double fields of a cell within a chunk
+    private static final int PATH_COST = 0;
+    private static final int HEURISTIC = 1;
+    private static final int DOUBLE_SHIFT = 1;
+
+    /**
+     * Grids up to this many cells get flat arrays; larger ones get chunks
+     */
+    public static final int FLAT_CELL_LIMIT = 1 << 21;
+
+    /**
+     * Ints of a chunk no query has touched yet. Generations start at one, so
+     * every cell of it reads as unvisited and open without a null check.
+     */
+    private static final int[] UNTOUCHED = new int[CHUNK_SIZE << INT_SHIFT];
+
+    private int generation = 0;
+    /*
+     * Grids of ordinary size use one flat array per value, which keeps the
+     * hot accessors to a single array access. Larger grids split the values
+     * into chunks like the cells of the grid, and a chunk is only allocated
+     * once a query visits one of its cells, so a search of a small area of a
+     * huge sparse grid stays small. The flat arrays are null while chunks are
+     * in use.
+     */
+    private int[] visitedStamps, closedStamps, parents, directions;
+    private double[] pathCosts, heuristics;
+    private int flatCapacity = 0;
+    private int[][] chunkInts = new int[0][];
+    private double[][] chunkDoubles = new double[0][];
+    private int capacity = 0;
+
+    private IndexedHeap heap;
+    private BucketQueue bucketQueue;
+
+    /**
+     * Starts a new query, forgetting the state of the previous one
+     *
+     * @param cellCount the size of the index space of the grid to search
+     */
+    public void begin(int cellCount) {
+        if (cellCount <= FLAT_CELL_LIMIT) {
+            if (cellCount > flatCapacity || visitedStamps == null) {
+                flatCapacity = Math.max(cellCount, flatCapacity);
+                visitedStamps = new int[flatCapacity];
+                closedStamps = new int[flatCapacity];
+                parents = new int[flatCapacity];
+                directions = new int[flatCapacity];
+                pathCosts = new double[flatCapacity];
+                heuristics = new double[flatCapacity];
+                // Fresh stamps are zero, which no generation will ever match
+            }
+            capacity = flatCapacity;
+        } else {
+            int chunkCount = (int) (((long) cellCount + CHUNK_MASK) >>> CHUNK_SHIFT);
+            if (chunkCount > chunkInts.length) {
+                int oldCount = chunkInts.length;
+                chunkInts = Arrays.copyOf(chunkInts, chunkCount);
+                chunkDoubles = Arrays.copyOf(chunkDoubles, chunkCount);
+                Arrays.fill(chunkInts, oldCount, chunkCount, UNTOUCHED);
+            }
+            // Flat arrays are dropped rather than kept beside the chunks
+            visitedStamps = closedStamps = parents = directions = null;
+            pathCosts = heuristics = null;
+            flatCapacity = 0;
+            capacity = (int) Math.min(Integer.MAX_VALUE, (long) chunkCount << CHUNK_SHIFT);
+        }
+        if (++generation == 0) {
+            // Stamps wrapped around, old values could alias the new generation
+            if (visitedStamps != null) {
+                Arrays.fill(visitedStamps, 0);
+                Arrays.fill(closedStamps, 0);
+            }
+            for (int[] chunk : chunkInts) {
+                if (chunk != UNTOUCHED) {
+                    Arrays.fill(chunk, 0);
+                }
+            }
+            generation = 1;
+        }
+        if (heap != null) {
+            heap.clear();
+        }
+        if (bucketQueue != null) {
+            bucketQueue.clear();
+        }
+    }
+
+    /**
+     * @return the size of the index space of the current query
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of chunks of per-cell values allocated for grids
+     * too large for flat arrays
+     */
+    public int getAllocatedChunkCount() {
+        int allocated = 0;
+        for (int[] chunk : chunkInts) {
+            if (chunk != UNTOUCHED) {
+                allocated++;
+            }
+        }
+        return allocated;
+    }
+
+    private int chunkInt(int index, int field) {
+        return chunkInts[index >>> CHUNK_SHIFT][(index & CHUNK_MASK) << INT_SHIFT | field];
+    }
+
+    private void setChunkInt(int index, int field, int value) {
+        chunkInts[index >>> CHUNK_SHIFT][(index & CHUNK_MASK) << INT_SHIFT | field] = value;
+    }
+
+    private double chunkDouble(int index, int field) {
+        return chunkDoubles[index >>> CHUNK_SHIFT][(index & CHUNK_MASK) << DOUBLE_SHIFT | field];
+    }
+
+    private void setChunkDouble(int index, int field, double value) {
+        chunkDoubles[index >>> CHUNK_SHIFT][(index & CHUNK_MASK) << DOUBLE_SHIFT | field] = value;
+    }
+
+    /**
+     * @return whether the cell has been reached during the current query
+     */
+    public boolean isVisited(int index) {
+        int[] stamps = visitedStamps;
+        return (stamps != null ? stamps[index] : chunkInt(index, VISITED)) == generation;
+    }
+
+    /**
+     * Marks a cell as reached, with no parent and an infinite path cost
+     *
+     * @param heuristic the heuristic estimate to remember for the cell
+     */
+    public void visit(int index, double heuristic) {
+        if (visitedStamps != null) {
+            visitedStamps[index] = generation;
+            pathCosts[index] = Double.POSITIVE_INFINITY;
+            heuristics[index] = heuristic;
+            parents[index] = -1;
+            directions[index] = -1;
+            return;
+        }
+        int chunk = index >>> CHUNK_SHIFT;
+        if (chunkInts[chunk] == UNTOUCHED) {
+            chunkInts[chunk] = new int[CHUNK_SIZE << INT_SHIFT];
+            chunkDoubles[chunk] = new double[CHUNK_SIZE << DOUBLE_SHIFT];
+        }
+        setChunkInt(index, VISITED, generation);
+        setChunkInt(index, PARENT, -1);
+        setChunkInt(index, DIRECTION, -1);
+        setChunkDouble(index, PATH_COST, Double.POSITIVE_INFINITY);
+        setChunkDouble(index, HEURISTIC, heuristic);
+    }
+
+    public boolean isClosed(int index) {
+        int[] stamps = closedStamps;
+        return (stamps != null ? stamps[index] : chunkInt(index, CLOSED)) == generation;
+    }
+
+    /**
+     * @param index a cell visited during the current query
+     */
+    public void close(int index) {
+        if (closedStamps != null) {
+            closedStamps[index] = generation;
+        } else {
+            setChunkInt(index, CLOSED, generation);
+        }
+    }
+
+    /**
+     * @return the best known path cost to the cell, or infinity if the cell
+     * has not been reached
+     */
+    public double getPathCost(int index) {
+        if (!isVisited(index)) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double[] costs = pathCosts;
+        return costs != null ? costs[index] : chunkDouble(index, PATH_COST);
+    }
+
+    public void setPathCost(int index, double cost) {
+        if (pathCosts != null) {
+            pathCosts[index] = cost;
+        } else {
+            setChunkDouble(index, PATH_COST, cost);
+        }
+    }
+
+    public double getHeuristic(int index) {
+        double[] values = heuristics;
+        return values != null ? values[index] : chunkDouble(index, HEURISTIC);
+    }
+
+    public int getParent(int index) {
+        int[] values = parents;
+        return values != null ? values[index] : chunkInt(index, PARENT);
+    }
+
+    public void setParent(int index, int parent) {
+        if (parents != null) {
+            parents[index] = parent;
+        } else {
+            setChunkInt(index, PARENT, parent);
+        }
+    }
+
+    /**
+     * @return the direction the cell was entered from its parent, as an index
+     * into {@link Hex#DIRECTIONS}, or -1 if unknown
+     */
+    public int getDirection(int index) {
+        int[] values = directions;
+        return values != null ? values[index] : chunkInt(index, DIRECTION);
+    }
+
+    public void setDirection(int index, int direction) {
+        if (directions != null) {
+            directions[index] = direction;
+        } else {
+            setChunkInt(index, DIRECTION, direction);
+        }
+    }
+
+    /**
+     * @return an empty heap holding up to {@link #capacity()} cells
+     */
+    public IndexedHeap getHeap(int arity) {
+        if (heap == null || heap.capacity() < capacity() || heap.arity() != arity) {
+            heap = new IndexedHeap(capacity(), arity);
+        }
+        return heap;
+    }
+
+    /**
+     * @return an empty bucket queue holding up to {@link #capacity()} cells
+     */
+    public BucketQueue getBucketQueue() {
+        if (bucketQueue == null || bucketQueue.capacity() < capacity()) {
+            bucketQueue = new BucketQueue(capacity());
+        }
+        return bucketQueue;
+    }
+}
@@ -1,5 +1,10 @@
 package model.grid.hex;
 
+/**
+ * The contents of a hex. Ordinals are stored in grid cells and map files,
+ * so new types go at the end; a map file has room for fifteen.
+ */
 public enum HexType {
-    EMPTY, WALL, DIRT, START, END
+    EMPTY, WALL, DIRT, START, END,
+    SAND, FOREST, SWAMP, WATER
 }
@@ -0,0 +1,205 @@
+package util;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Bucket queue (Dial's algorithm) for small non-negative integer priorities.
+ * Each priority has a doubly linked bucket threaded through int arrays, so
+ * push, decrease-key and removal are O(1) and poll only scans forward over
+ * empty buckets. The bucket heads grow to the largest priority pushed, so
+ * callers must keep priorities bounded.
+ *
+ * Beyond {@link #FLAT_CAPACITY_LIMIT} elements the per-element links are
+ * split into chunks that are only allocated once one of their elements is
+ * pushed, so a huge capacity costs little until it is used.
+ */
+public class BucketQueue implements IntPriorityQueue {
+
+    public static final int FLAT_CAPACITY_LIMIT = 1 << 21;
+
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    // Per-element fields, interleaved
+    private static final int NEXT = 0;
+    private static final int PREV = 1;
+    private static final int BUCKET = 2;
+    private static final int FIELD_SHIFT = 2;
+
+    /**
+     * Links of a chunk with no element ever pushed, shared and read-only
+     */
+    private static final int[] ABSENT = new int[CHUNK_SIZE << FIELD_SHIFT];
+    static {
+        Arrays.fill(ABSENT, -1);
+    }
+
+    private int[] heads = new int[64];
+    private final int capacity;
+    // Exactly one of the two link tables is in use
+    private final int[] flatLinks;
+    private final int[][] chunkLinks;
+    private int size = 0;
+    // No bucket below the cursor holds an element
+    private int cursor = 0;
+
+    /**
+     * @param capacity elements must lie in [0, capacity)
+     */
+    public BucketQueue(int capacity) {
+        this.capacity = capacity;
+        Arrays.fill(heads, -1);
+        if (capacity <= FLAT_CAPACITY_LIMIT) {
+            flatLinks = new int[capacity << FIELD_SHIFT];
+            Arrays.fill(flatLinks, -1);
+            chunkLinks = null;
+        } else {
+            flatLinks = null;
+            chunkLinks = new int[(int) (((long) capacity + CHUNK_MASK) >>> CHUNK_SHIFT)][];
+            Arrays.fill(chunkLinks, ABSENT);
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(int element) {
+        return get(element, BUCKET) >= 0;
+    }
+
+    /**
+     * @param priority a non-negative whole number
+     */
+    @Override
+    public void push(int element, double priority) {
+        int bucket = (int) priority;
+        if (bucket != priority || bucket < 0) {
+            throw new IllegalArgumentException(
+                "Bucket queue priorities must be non-negative integers: " + priority);
+        }
+        // Allocate before changing anything, so running out of memory leaves
+        // the queue as it was
+        if (bucket >= heads.length) {
+            int oldLength = heads.length;
+            int[] grown = Arrays.copyOf(heads, Math.max(bucket + 1, oldLength * 2));
+            Arrays.fill(grown, oldLength, grown.length, -1);
+            heads = grown;
+        }
+        if (flatLinks == null && chunkLinks[element >>> CHUNK_SHIFT] == ABSENT) {
+            chunkLinks[element >>> CHUNK_SHIFT] = ABSENT.clone();
+        }
+        int current = get(element, BUCKET);
+        if (current == bucket) {
+            return;
+        }
+        if (current >= 0) {
+            unlink(element);
+        } else {
+            size++;
+        }
+        int head = heads[bucket];
+        set(element, NEXT, head);
+        set(element, PREV, -1);
+        if (head >= 0) {
+            set(head, PREV, element);
+        }
+        heads[bucket] = element;
+        set(element, BUCKET, bucket);
+        if (bucket < cursor) {
+            cursor = bucket;
+        }
+    }
+
+    @Override
+    public int poll() {
+        int element = heads[advance()];
+        unlink(element);
+        size--;
+        return element;
+    }
+
+    @Override
+    public boolean remove(int element) {
+        if (get(element, BUCKET) < 0) {
+            return false;
+        }
+        unlink(element);
+        size--;
+        return true;
+    }
+
+    @Override
+    public double peekPriority() {
+        return advance();
+    }
+
+    @Override
+    public void clear() {
+        for (int bucket = cursor; size > 0; bucket++) {
+            while (heads[bucket] >= 0) {
+                unlink(heads[bucket]);
+                size--;
+            }
+        }
+        cursor = 0;
+    }
+
+    private int advance() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        while (heads[cursor] < 0) {
+            cursor++;
+        }
+        return cursor;
+    }
+
+    private void unlink(int element) {
+        int before = get(element, PREV);
+        int after = get(element, NEXT);
+        if (before >= 0) {
+            set(before, NEXT, after);
+        } else {
+            heads[get(element, BUCKET)] = after;
+        }
+        if (after >= 0) {
+            set(after, PREV, before);
+        }
+        set(element, BUCKET, -1);
+    }
+
+    private int get(int element, int field) {
+        int[] flat = flatLinks;
+        if (flat != null) {
+            return flat[element << FIELD_SHIFT | field];
+        }
+        return chunkLinks[element >>> CHUNK_SHIFT][(element & CHUNK_MASK) << FIELD_SHIFT | field];
+    }
+
+    /**
+     * Only for elements whose chunk has been allocated by a push
+     */
+    private void set(int element, int field, int value) {
+        int[] flat = flatLinks;
+        if (flat != null) {
+            flat[element << FIELD_SHIFT | field] = value;
+        } else {
+            chunkLinks[element >>> CHUNK_SHIFT][(element & CHUNK_MASK) << FIELD_SHIFT | field] =
+                value;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package util;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Indexed d-ary min-heap of ints with decrease-key. Priorities are kept inline
+ * with the heap slots, and a position table maps each element to its slot.
+ *
+ * The heap grows with the number of elements queued. Beyond
+ * {@link #FLAT_CAPACITY_LIMIT} elements the position table is split into
+ * chunks that are only allocated once one of their elements is pushed, so a
+ * huge capacity costs little until it is used.
+ */
+public class IndexedHeap implements IntPriorityQueue {
+
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int INITIAL_SLOTS = 256;
+
+    public static final int FLAT_CAPACITY_LIMIT = 1 << 21;
+
+    /**
+     * Positions of a chunk with no element ever pushed, shared and read-only
+     */
+    private static final int[] ABSENT = new int[CHUNK_SIZE];
+    static {
+        Arrays.fill(ABSENT, -1);
+    }
+
+    private final int arity;
+    private final int capacity;
+    private int[] heap;
+    private double[] keys;
+    // Exactly one of the two position tables is in use
+    private final int[] flatPositions;
+    private final int[][] chunkPositions;
+    private int size = 0;
+
+    public IndexedHeap(int capacity) {
+        this(capacity, 4);
+    }
+
+    /**
+     * @param capacity elements must lie in [0, capacity)
+     * @param arity the number of children per heap node, at least 2
+     */
+    public IndexedHeap(int capacity, int arity) {
+        if (arity < 2) {
+            throw new IllegalArgumentException("Heap arity must be at least 2: " + arity);
+        }
+        this.arity = arity;
+        this.capacity = capacity;
+        heap = new int[Math.min(capacity, INITIAL_SLOTS)];
+        keys = new double[heap.length];
+        if (capacity <= FLAT_CAPACITY_LIMIT) {
+            flatPositions = new int[capacity];
+            Arrays.fill(flatPositions, -1);
+            chunkPositions = null;
+        } else {
+            flatPositions = null;
+            chunkPositions = new int[(int) (((long) capacity + CHUNK_MASK) >>> CHUNK_SHIFT)][];
+            Arrays.fill(chunkPositions, ABSENT);
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(int element) {
+        return position(element) >= 0;
+    }
+
+    @Override
+    public void push(int element, double priority) {
+        int pos = position(element);
+        if (pos < 0) {
+            if (flatPositions == null && chunkPositions[element >>> CHUNK_SHIFT] == ABSENT) {
+                int[] chunk = new int[CHUNK_SIZE];
+                Arrays.fill(chunk, -1);
+                chunkPositions[element >>> CHUNK_SHIFT] = chunk;
+            }
+            if (size == heap.length) {
+                int length = (int) Math.min(capacity, 2L * heap.length);
+                heap = Arrays.copyOf(heap, length);
+                keys = Arrays.copyOf(keys, length);
+            }
+            siftUp(size++, element, priority);
+        } else if (priority < keys[pos]) {
+            siftUp(pos, element, priority);
+        } else if (priority > keys[pos]) {
+            siftDown(pos, element, priority);
+        }
+    }
+
+    @Override
+    public int poll() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        int top = heap[0];
+        setPosition(top, -1);
+        if (--size > 0) {
+            siftDown(0, heap[size], keys[size]);
+        }
+        return top;
+    }
+
+    @Override
+    public boolean remove(int element) {
+        int pos = position(element);
+        if (pos < 0) {
+            return false;
+        }
+        setPosition(element, -1);
+        if (--size > pos) {
+            // Refill the hole with the last slot, which may belong either way
+            int last = heap[size];
+            double key = keys[size];
+            if (pos > 0 && keys[(pos - 1) / arity] > key) {
+                siftUp(pos, last, key);
+            } else {
+                siftDown(pos, last, key);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public double peekPriority() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return keys[0];
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            setPosition(heap[i], -1);
+        }
+        size = 0;
+    }
+
+    private void siftUp(int pos, int element, double key) {
+        while (pos > 0) {
+            int parent = (pos - 1) / arity;
+            if (keys[parent] <= key) {
+                break;
+            }
+            place(pos, heap[parent], keys[parent]);
+            pos = parent;
+        }
+        place(pos, element, key);
+    }
+
+    private void siftDown(int pos, int element, double key) {
+        while (true) {
+            int first = pos * arity + 1;
+            if (first >= size) {
+                break;
+            }
+            int last = Math.min(first + arity, size);
+            int best = first;
+            for (int child = first + 1; child < last; child++) {
+                if (keys[child] < keys[best]) {
+                    best = child;
+                }
+            }
+            if (keys[best] >= key) {
+                break;
+            }
+            place(pos, heap[best], keys[best]);
+            pos = best;
+        }
+        place(pos, element, key);
+    }
+
+    private void place(int pos, int element, double key) {
+        heap[pos] = element;
+        keys[pos] = key;
+        setPosition(element, pos);
+    }
+
+    private int position(int element) {
+        int[] flat = flatPositions;
+        if (flat != null) {
+            return flat[element];
+        }
+        return chunkPositions[element >>> CHUNK_SHIFT][element & CHUNK_MASK];
+    }
+
+    /**
+     * Only for elements whose chunk has been allocated by a push
+     */
+    private void setPosition(int element, int pos) {
+        int[] flat = flatPositions;
+        if (flat != null) {
+            flat[element] = pos;
+        } else {
+            chunkPositions[element >>> CHUNK_SHIFT][element & CHUNK_MASK] = pos;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package util;
+
+/**
+ * A min-priority queue over the integers [0, capacity) in which each element
+ * is present at most once, so improving an element's priority updates it in
+ * place instead of adding a duplicate.
+ */
+public interface IntPriorityQueue {
+
+    boolean isEmpty();
+
+    int size();
+
+    boolean contains(int element);
+
+    /**
+     * Inserts an element, or moves it to a new priority if already present
+     *
+     * @param element an integer in [0, capacity)
+     * @param priority the priority, lower is polled first
+     */
+    void push(int element, double priority);
+
+    /**
+     * Removes and returns the element with the lowest priority
+     */
+    int poll();
+
+    /**
+     * Removes an element wherever it is in the queue
+     *
+     * @return whether the element was present
+     */
+    boolean remove(int element);
+
+    /**
+     * @return the lowest priority in the queue
+     */
+    double peekPriority();
+
+    void clear();
+}
@@ -5,6 +5,11 @@ public final class SearchMethods {
     public static final String UCS = "Uniform Cost Search";
     public static final String GREEDY = "Greedy Search";
     public static final String A_STAR = "A* Search";
+    public static final String WEIGHTED_A_STAR = "Weighted A* Search";
+    public static final String ANYTIME_A_STAR = "Anytime Repairing A* Search";
+    public static final String JPS = "Jump Point Search";
+    public static final String BIDIRECTIONAL_UCS = "Bidirectional Uniform Cost Search";
+    public static final String BIDIRECTIONAL_A_STAR = "Bidirectional A* Search";
 
     private SearchMethods() { }
 }